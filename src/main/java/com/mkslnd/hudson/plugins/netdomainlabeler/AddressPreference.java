@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Which addresses of a dual-stack or multi-homed host name its domain: IPv4 first, IPv6 first or
+ * the addresses of a given range first.
+ */
+final class AddressPreference {
+  /** Number of ranks. */
+  static final int RANKS = 3;
+  /** IPv4 addresses first, the default. */
+  static final AddressPreference IPV4 = new AddressPreference("ipv4", null, false);
+  /** IPv6 addresses first. */
+  static final AddressPreference IPV6 = new AddressPreference("ipv6", null, true);
+
+  /** As configured. */
+  private final String text;
+  /** The preferred range, null for none. */
+  private final CidrDomainTable subnet;
+  /** Whether IPv6 addresses come before IPv4 ones. */
+  private final boolean ipv6First;
+
+  private AddressPreference(
+      final String text, final CidrDomainTable subnet, final boolean ipv6First) {
+    this.text = text;
+    this.subnet = subnet;
+    this.ipv6First = ipv6First;
+  }
+
+  /**
+   * Parses a preference: {@code ipv4}, {@code ipv6} or a range in CIDR notation such as {@code
+   * 10.20.0.0/16}, whose addresses come first and then IPv4 before IPv6.
+   *
+   * @param text the preference, blank for {@code ipv4}
+   * @return the preference
+   * @throws IllegalArgumentException when the preference is not valid
+   */
+  static AddressPreference parse(final String text) {
+    String value = text == null ? "" : text.trim().toLowerCase(Locale.ENGLISH);
+    if (value.isEmpty() || value.equals(IPV4.text)) {
+      return IPV4;
+    }
+    if (value.equals(IPV6.text)) {
+      return IPV6;
+    }
+    if (value.indexOf('/') < 0 || value.indexOf(' ') >= 0) {
+      throw new IllegalArgumentException("Not ipv4, ipv6 or an IP range: " + text.trim());
+    }
+    return new AddressPreference(value, CidrDomainTable.parse(value + " preferred"), false);
+  }
+
+  /**
+   * Rank of an address, lower first.
+   *
+   * @param address the address
+   * @return the rank, from 0 to {@link #RANKS} excluded
+   */
+  int rank(final InetAddress address) {
+    boolean ipv6 = address instanceof Inet6Address;
+    if (subnet != null) {
+      return subnet.lookup(address) != null ? 0 : ipv6 ? 2 : 1;
+    }
+    return ipv6 == ipv6First ? 0 : 1;
+  }
+
+  /**
+   * Sorts addresses by rank, keeping the resolver order within a rank.
+   *
+   * @param addresses the addresses
+   * @return the sorted addresses, a copy
+   */
+  InetAddress[] sort(final InetAddress[] addresses) {
+    InetAddress[] sorted = addresses.clone();
+    Arrays.sort(sorted, Comparator.comparingInt(this::rank));
+    return sorted;
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Runs on the agent and reports its own fully qualified name and DNS search domain, so that the
+ * controller does not have to resolve the agent.
+ *
+ * <p>The result holds the FQDN at index {@link #FQDN} and the search domain, or null, at index
+ * {@link #SEARCH_DOMAIN}.
+ */
+final class AgentDomainCallable extends MasterToSlaveCallable<String[], IOException> {
+  private static final long serialVersionUID = 1L;
+  /** Index of the FQDN in the result. */
+  static final int FQDN = 0;
+  /** Index of the search domain in the result. */
+  static final int SEARCH_DOMAIN = 1;
+  /** Resolver configuration on Unix agents. */
+  private static final String RESOLV_CONF = "/etc/resolv.conf";
+
+  @Override
+  public String[] call() throws IOException {
+    String fqdn = InetAddress.getLocalHost().getCanonicalHostName();
+    return new String[] {fqdn, searchDomain()};
+  }
+
+  /**
+   * First domain of the resolver search list of the agent.
+   *
+   * @return search domain or null
+   * @throws IOException on I/O error
+   */
+  private static String searchDomain() throws IOException {
+    File file = new File(RESOLV_CONF);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length > 1 && ("domain".equals(fields[0]) || "search".equals(fields[0]))) {
+          return fields[1];
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Whether what the agent reported can be trusted as labels: an agent is not trusted to name
+   * itself anything, so the FQDN must be a host name or an IP literal and the search domain a host
+   * name, which keeps label expression operators and spaces out of the labels.
+   *
+   * @param reported result of the callable
+   * @return true when both values are valid or absent
+   */
+  static boolean isValid(final String[] reported) {
+    if (reported == null || reported.length != 2) {
+      return false;
+    }
+    String fqdn = reported[FQDN];
+    String search = reported[SEARCH_DOMAIN];
+    return (fqdn == null || HostNames.isHostName(fqdn) || HostNames.isIpLiteral(fqdn))
+        && (search == null || HostNames.isHostName(search));
+  }
+
+  /**
+   * The domain reported by the agent, from its FQDN or else from its search domain.
+   *
+   * @param reported result of the callable, {@link #isValid valid}
+   * @return domain or null
+   */
+  static String domainOf(final String[] reported) {
+    String fqdn = reported[FQDN];
+    if (fqdn != null && !HostNames.isIpLiteral(fqdn)) {
+      String domain = HostNames.domainOf(fqdn);
+      if (domain != null) {
+        return domain;
+      }
+    }
+    String search = reported[SEARCH_DOMAIN];
+    if (search != null && search.endsWith(".")) {
+      return search.substring(0, search.length() - 1);
+    }
+    return search;
+  }
+}
@@ -0,0 +1,414 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import antlr.ANTLRException;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Resolves the labels of selected online nodes again in the background, in rate limited batches,
+ * recording the progress and the old and new domain of every node. Agents stay connected, so
+ * running builds are not interrupted; used when the DNS of a subnet changes.
+ */
+final class BulkResolution implements Runnable {
+  /** Logging of issues. */
+  private static final transient Logger LOGGER = Logger.getLogger(BulkResolution.class.getName());
+  /** Nodes resolved per batch. */
+  private static final int BATCH_SIZE =
+      SystemProperties.getInteger(BulkResolution.class.getName() + ".batchSize", 20);
+  /** Milliseconds between two batches. */
+  private static final long BATCH_DELAY =
+      SystemProperties.getLong(BulkResolution.class.getName() + ".batchDelay", 1000L);
+  /** The last resolution started. */
+  private static final AtomicReference<BulkResolution> LAST = new AtomicReference<>();
+
+  /** Human readable description of the selection. */
+  private final String selection;
+  /** Computers to resolve. */
+  private final List<Computer> computers;
+  /** Nodes resolved so far. */
+  private final AtomicInteger done = new AtomicInteger();
+  /** Progress and differences, one line per event. */
+  private final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+  /** Whether the resolution is over. */
+  private volatile boolean finished;
+  /** Whether it was asked to stop. */
+  private volatile boolean cancelled;
+
+  /**
+   * Creates a resolution.
+   *
+   * @param selection description of the selection
+   * @param computers computers to resolve
+   */
+  BulkResolution(final String selection, final List<Computer> computers) {
+    this.selection = selection;
+    this.computers = computers;
+  }
+
+  /**
+   * Selects the online computers whose node matches every given criterion.
+   *
+   * @param namePattern node name pattern where {@code *} matches anything and {@code ?} one
+   *     character, null or blank for any
+   * @param labelExpression label expression, null or blank for any
+   * @param domain domain label set by the plugin, null or blank for any
+   * @return the computers
+   * @throws IllegalArgumentException when the label expression is not valid
+   */
+  static List<Computer> select(
+      final String namePattern, final String labelExpression, final String domain) {
+    final Jenkins jenkins = Jenkins.get();
+    String pattern = Util.fixEmptyAndTrim(namePattern);
+    String expression = Util.fixEmptyAndTrim(labelExpression);
+    String domainName = Util.fixEmptyAndTrim(domain);
+    Pattern name = pattern == null ? null : glob(pattern);
+    Label label = null;
+    if (expression != null) {
+      try {
+        label = Label.parseExpression(expression);
+      } catch (ANTLRException ex) {
+        throw new IllegalArgumentException("Invalid label expression: " + ex.getMessage(), ex);
+      }
+    }
+    List<Computer> selected = new ArrayList<>();
+    for (Computer computer : jenkins.getComputers()) {
+      Node node = computer.getNode();
+      if (node == null || !computer.isOnline()) {
+        continue;
+      }
+      if (name != null && !name.matcher(node.getNodeName()).matches()) {
+        continue;
+      }
+      if (label != null && !label.matches(node)) {
+        continue;
+      }
+      if (domainName != null && !hasLabel(node.getNodeName(), domainName)) {
+        continue;
+      }
+      selected.add(computer);
+    }
+    return selected;
+  }
+
+  /**
+   * Whether the plugin labeled the node with a label of that name. Names are compared rather than
+   * atoms, so that a domain typed in the form does not register a new label in Jenkins.
+   *
+   * @param nodeName name of the node
+   * @param labelName name of the label
+   * @return true when the node has the label
+   */
+  private static boolean hasLabel(final String nodeName, final String labelName) {
+    Collection<LabelAtom> labels = NodeLabelMgr.nodeLabels.get(nodeName);
+    if (labels != null) {
+      for (LabelAtom atom : labels) {
+        if (atom.getName().equals(labelName)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Starts resolving the selected computers in the background unless a resolution is still
+   * running.
+   *
+   * @param namePattern node name pattern, null or blank for any
+   * @param labelExpression label expression, null or blank for any
+   * @param domain domain label set by the plugin, null or blank for any
+   * @return the resolution started
+   * @throws IllegalArgumentException when the label expression is not valid
+   * @throws IllegalStateException when a resolution is still running
+   */
+  static BulkResolution start(
+      final String namePattern, final String labelExpression, final String domain) {
+    List<String> criteria = new ArrayList<>();
+    if (Util.fixEmptyAndTrim(namePattern) != null) {
+      criteria.add("named " + namePattern.trim());
+    }
+    if (Util.fixEmptyAndTrim(labelExpression) != null) {
+      criteria.add("matching " + labelExpression.trim());
+    }
+    if (Util.fixEmptyAndTrim(domain) != null) {
+      criteria.add("in " + domain.trim());
+    }
+    BulkResolution resolution =
+        new BulkResolution(
+            criteria.isEmpty() ? "online" : String.join(", ", criteria),
+            select(namePattern, labelExpression, domain));
+    BulkResolution last = LAST.get();
+    if ((last != null && !last.finished) || !LAST.compareAndSet(last, resolution)) {
+      throw new IllegalStateException("A bulk resolution is already running");
+    }
+    Computer.threadPoolForRemoting.submit(resolution);
+    return resolution;
+  }
+
+  /**
+   * The last resolution started.
+   *
+   * @return the resolution, null if none was started
+   */
+  static BulkResolution getLast() {
+    return LAST.get();
+  }
+
+  @Override
+  public void run() {
+    log("Resolving " + computers.size() + " nodes, " + selection);
+    NodeLabelMgr mgr = ExtensionList.lookupSingleton(NodeLabelMgr.class);
+    int changed = 0;
+    try {
+      for (int from = 0; from < computers.size() && !cancelled; from += BATCH_SIZE) {
+        if (from > 0) {
+          Thread.sleep(BATCH_DELAY);
+        }
+        List<Computer> batch =
+            computers.subList(from, Math.min(from + BATCH_SIZE, computers.size()));
+        Map<String, String> oldDomains = new HashMap<>();
+        for (Computer computer : batch) {
+          oldDomains.put(computer.getName(), domainOf(computer.getName()));
+          try {
+            String hostname = computer.getHostName();
+            if (hostname != null) {
+              NodeLabelMgr.invalidateDomain(hostname);
+            }
+          } catch (IOException ex) {
+            // resolution will report it
+          }
+        }
+        Map<String, Collection<LabelAtom>> resolved = mgr.resolveAll(batch);
+        Map<String, Collection<LabelAtom>> previous = new HashMap<>();
+        for (String name : resolved.keySet()) {
+          previous.put(name, NodeLabelMgr.nodeLabels.get(name));
+        }
+        Set<LabelAtom> affected = new HashSet<>();
+        Set<String> changedNodes = NodeLabelMgr.publish(resolved, affected);
+        NodeLabelMgr.refreshLabels(affected);
+        changed += changedNodes.size();
+        for (Computer computer : batch) {
+          String name = computer.getName();
+          if (!resolved.containsKey(name)) {
+            log(name + ": not resolved");
+          } else {
+            log(
+                diff(
+                    name,
+                    oldDomains.get(name),
+                    domainOf(name),
+                    previous.get(name),
+                    resolved.get(name)));
+          }
+        }
+        done.addAndGet(batch.size());
+      }
+    } catch (InterruptedException ex) {
+      cancelled = true;
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException ex) {
+      LOGGER.log(Level.WARNING, "Bulk resolution failed", ex);
+      log("Failed: " + ex);
+    } finally {
+      log(
+          (cancelled ? "Cancelled after " : "Resolved ")
+              + done.get()
+              + " of "
+              + computers.size()
+              + " nodes, "
+              + changed
+              + " changed");
+      finished = true;
+    }
+  }
+
+  /**
+   * Describes how the domain and labels of a node changed.
+   *
+   * @param name node name
+   * @param oldDomain domain before, may be null
+   * @param newDomain domain after, may be null
+   * @param oldLabels labels before, may be null
+   * @param newLabels labels after
+   * @return one line
+   */
+  static String diff(
+      final String name,
+      final String oldDomain,
+      final String newDomain,
+      final Collection<LabelAtom> oldLabels,
+      final Collection<LabelAtom> newLabels) {
+    StringBuilder line = new StringBuilder(name).append(": ");
+    if (String.valueOf(oldDomain).equals(String.valueOf(newDomain))) {
+      line.append(newDomain == null ? "no domain" : newDomain).append(" unchanged");
+    } else {
+      line.append(oldDomain == null ? "no domain" : oldDomain).append(" -> ");
+      line.append(newDomain == null ? "no domain" : newDomain);
+    }
+    Set<String> added = new TreeSet<>();
+    Set<String> removed = new TreeSet<>();
+    for (LabelAtom atom : newLabels) {
+      if (oldLabels == null || !oldLabels.contains(atom)) {
+        added.add(atom.getName());
+      }
+    }
+    if (oldLabels != null) {
+      for (LabelAtom atom : oldLabels) {
+        if (!newLabels.contains(atom)) {
+          removed.add(atom.getName());
+        }
+      }
+    }
+    for (String label : added) {
+      line.append(" +").append(label);
+    }
+    for (String label : removed) {
+      line.append(" -").append(label);
+    }
+    return line.toString();
+  }
+
+  /**
+   * The last domain resolved for a node.
+   *
+   * @param nodeName name of the node
+   * @return the domain, null if none
+   */
+  private static String domainOf(final String nodeName) {
+    PersistentLabelCache.Entry entry = PersistentLabelCache.get(nodeName);
+    return entry == null ? null : entry.domain;
+  }
+
+  /**
+   * Adds a line to the progress.
+   *
+   * @param line the line
+   */
+  private void log(final String line) {
+    lines.add(line);
+  }
+
+  /** Asks the resolution to stop after the current batch. */
+  void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Progress lines from one on.
+   *
+   * @param from index of the first line
+   * @return the lines, empty if there is none yet
+   */
+  List<String> getLines(final int from) {
+    synchronized (lines) {
+      return from >= lines.size()
+          ? Collections.emptyList()
+          : new ArrayList<>(lines.subList(Math.max(0, from), lines.size()));
+    }
+  }
+
+  /**
+   * Description of the selection.
+   *
+   * @return the description
+   */
+  String getSelection() {
+    return selection;
+  }
+
+  /**
+   * Number of nodes to resolve.
+   *
+   * @return nodes
+   */
+  int getTotal() {
+    return computers.size();
+  }
+
+  /**
+   * Number of nodes resolved so far.
+   *
+   * @return nodes
+   */
+  int getDone() {
+    return done.get();
+  }
+
+  /**
+   * Whether the resolution is over.
+   *
+   * @return true once every batch ran, or it was cancelled
+   */
+  boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * A node name pattern as a regular expression.
+   *
+   * @param pattern the pattern, {@code *} matching anything and {@code ?} one character
+   * @return the expression
+   */
+  private static Pattern glob(final String pattern) {
+    StringBuilder regex = new StringBuilder();
+    int start = 0;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '*' || c == '?') {
+        if (i > start) {
+          regex.append(Pattern.quote(pattern.substring(start, i)));
+        }
+        regex.append(c == '*' ? ".*" : ".");
+        start = i + 1;
+      }
+    }
+    if (start < pattern.length()) {
+      regex.append(Pattern.quote(pattern.substring(start)));
+    }
+    return Pattern.compile(regex.toString());
+  }
+}
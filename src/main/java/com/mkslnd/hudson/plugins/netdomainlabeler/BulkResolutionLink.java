@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import javax.servlet.http.HttpServletResponse;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Manage Jenkins page resolving the labels of selected agents again without reconnecting them,
+ * with its progress at {@code /manage/netdomain-resolve/progress}.
+ */
+@Extension
+public class BulkResolutionLink extends ManagementLink {
+
+  @Override
+  public String getIconFileName() {
+    return "network.png";
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Resolve Agent Domains";
+  }
+
+  @Override
+  public String getDescription() {
+    return "Resolve the domain labels of selected agents again, without disconnecting them.";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "netdomain-resolve";
+  }
+
+  /**
+   * Starts resolving the selected agents again.
+   *
+   * @param nodes node name pattern, blank for any
+   * @param label label expression, blank for any
+   * @param domain domain, blank for any
+   * @return redirect to the progress
+   */
+  @RequirePOST
+  public HttpResponse doStart(
+      @QueryParameter final String nodes,
+      @QueryParameter final String label,
+      @QueryParameter final String domain) {
+    Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+    try {
+      BulkResolution.start(nodes, label, domain);
+    } catch (IllegalArgumentException ex) {
+      return HttpResponses.errorWithoutStack(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+    } catch (IllegalStateException ex) {
+      return HttpResponses.errorWithoutStack(HttpServletResponse.SC_CONFLICT, ex.getMessage());
+    }
+    return HttpResponses.redirectToDot();
+  }
+
+  /**
+   * Stops the running resolution after its current batch.
+   *
+   * @return redirect to the progress
+   */
+  @RequirePOST
+  public HttpResponse doCancel() {
+    Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+    BulkResolution last = BulkResolution.getLast();
+    if (last != null) {
+      last.cancel();
+    }
+    return HttpResponses.redirectToDot();
+  }
+
+  /**
+   * Serves the progress of the last resolution.
+   *
+   * @param from index of the first progress line to return
+   * @return the progress as JSON
+   */
+  public HttpResponse doProgress(@QueryParameter final int from) {
+    Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+    BulkResolution last = BulkResolution.getLast();
+    JSONObject json = new JSONObject();
+    if (last == null) {
+      json.put("finished", true);
+      json.put("lines", new JSONArray());
+    } else {
+      // read before the lines so that the last lines are served before finished is
+      boolean finished = last.isFinished();
+      json.put("selection", last.getSelection());
+      json.put("done", last.getDone());
+      json.put("total", last.getTotal());
+      json.put("finished", finished);
+      json.put("lines", JSONArray.fromObject(last.getLines(from)));
+    }
+    return (req, rsp, node) -> {
+      rsp.setContentType("application/json;charset=UTF-8");
+      rsp.getWriter().print(json.toString());
+    };
+  }
+}
@@ -0,0 +1,371 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps IPv4 and IPv6 ranges in CIDR notation to domains, with longest prefix match.
+ *
+ * <p>Ranges are kept in a path compressed binary trie over 128 bit addresses, IPv4 being mapped
+ * into {@code ::ffff:0:0/96}: only the nodes carrying a domain or branching are kept, each with its
+ * prefix, so a lookup visits one node per range or branch on its path rather than one per bit. The
+ * trie is stored in flat arrays rather than node objects, and is immutable once built so lookups
+ * need no locking.
+ */
+final class CidrDomainTable {
+  /** The table without any range. */
+  static final CidrDomainTable EMPTY =
+      new CidrDomainTable(new int[2], new int[1], new int[1], new long[2], 1, null);
+  /** Prefix of IPv4 addresses mapped into IPv6. */
+  private static final byte[] IPV4_MAPPED = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, -1, -1};
+
+  /** Child of each node for bit 0 and 1, interleaved, 0 meaning none since the root is 0. */
+  private final int[] children;
+  /** Index plus one in {@link #domains} of the domain of each node, 0 meaning none. */
+  private final int[] values;
+  /** Prefix length of each node, the root being 0. */
+  private final int[] depths;
+  /** Prefix of each node as its high and low 64 bits, interleaved. */
+  private final long[] prefixes;
+  /** Number of nodes. */
+  private final int size;
+  /** Domains of the ranges. */
+  private final String[] domains;
+
+  private CidrDomainTable(
+      final int[] children,
+      final int[] values,
+      final int[] depths,
+      final long[] prefixes,
+      final int size,
+      final String[] domains) {
+    this.children = children;
+    this.values = values;
+    this.depths = depths;
+    this.prefixes = prefixes;
+    this.size = size;
+    this.domains = domains;
+  }
+
+  /**
+   * Parses a table, one range per line as {@code <address>/<prefix length> <domain>}. Blank lines
+   * and lines starting with {@code #} are ignored.
+   *
+   * @param text the table
+   * @return the table
+   * @throws IllegalArgumentException when a line is not valid
+   */
+  static CidrDomainTable parse(final String text) {
+    if (text == null || text.trim().isEmpty()) {
+      return EMPTY;
+    }
+    Builder builder = new Builder();
+    String[] lines = text.split("\\r?\\n");
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i].trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      if (fields.length != 2) {
+        throw new IllegalArgumentException(
+            "Line " + (i + 1) + ": expected <address>/<prefix length> <domain>");
+      }
+      int slash = fields[0].indexOf('/');
+      String literal = slash < 0 ? fields[0] : fields[0].substring(0, slash);
+      byte[] address = toIpv6(literalAddress(literal));
+      if (address == null) {
+        throw new IllegalArgumentException("Line " + (i + 1) + ": not an IP address " + fields[0]);
+      }
+      int offset = fields[0].indexOf(':') < 0 ? 96 : 0;
+      int prefix;
+      try {
+        prefix = slash < 0 ? 128 - offset : Integer.parseInt(fields[0].substring(slash + 1));
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException("Line " + (i + 1) + ": bad prefix length", ex);
+      }
+      if (prefix < 0 || prefix + offset > 128) {
+        throw new IllegalArgumentException("Line " + (i + 1) + ": bad prefix length " + prefix);
+      }
+      builder.add(address, prefix + offset, fields[1]);
+    }
+    return builder.build();
+  }
+
+  /**
+   * The domain of the longest range containing the address.
+   *
+   * @param address IPv4 or IPv6 address
+   * @return domain or null
+   */
+  String lookup(final InetAddress address) {
+    return lookup(address.getAddress());
+  }
+
+  /**
+   * The domain of the longest range containing the address.
+   *
+   * @param raw IPv4 or IPv6 address bytes
+   * @return domain or null
+   */
+  String lookup(final byte[] raw) {
+    if (domains == null) {
+      return null;
+    }
+    byte[] address = toIpv6(raw);
+    long high = toLong(address, 0);
+    long low = toLong(address, 8);
+    int node = 0;
+    int found = values[0];
+    for (int depth = 0; depth < 128; depth = depths[node]) {
+      int child = children[2 * node + bit(high, low, depth)];
+      if (child == 0 || !matches(high, low, child)) {
+        break;
+      }
+      node = child;
+      if (values[node] != 0) {
+        found = values[node];
+      }
+    }
+    return found == 0 ? null : domains[found - 1];
+  }
+
+  /**
+   * Whether the address starts with the prefix of the node, including the bits skipped between the
+   * node and its parent.
+   *
+   * @param high high 64 bits of the address
+   * @param low low 64 bits of the address
+   * @param node a node other than the root
+   * @return true if the address is in the range of the node
+   */
+  private boolean matches(final long high, final long low, final int node) {
+    int depth = depths[node];
+    long highMask = depth >= 64 ? -1L : -1L << (64 - depth);
+    long lowMask = depth <= 64 ? 0L : -1L << (128 - depth);
+    return ((high ^ prefixes[2 * node]) & highMask) == 0
+        && ((low ^ prefixes[2 * node + 1]) & lowMask) == 0;
+  }
+
+  /**
+   * A bit of an address.
+   *
+   * @param high high 64 bits of the address
+   * @param low low 64 bits of the address
+   * @param index index of the bit, 0 being the most significant
+   * @return 0 or 1
+   */
+  private static int bit(final long high, final long low, final int index) {
+    return (int) (index < 64 ? high >>> (63 - index) : low >>> (127 - index)) & 1;
+  }
+
+  /**
+   * Reads 8 bytes of an address.
+   *
+   * @param address IPv6 address bytes
+   * @param offset index of the first byte
+   * @return the bytes, big endian
+   */
+  private static long toLong(final byte[] address, final int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      value = (value << 8) | (address[i] & 0xff);
+    }
+    return value;
+  }
+
+  /**
+   * Number of trie nodes, for sizing.
+   *
+   * @return nodes
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Parses an IP literal without any DNS lookup.
+   *
+   * @param value candidate literal
+   * @return address bytes, or null if the value is not an IP literal
+   */
+  static byte[] literalAddress(final String value) {
+    if (value == null || !HostNames.isIpLiteral(value)) {
+      return null;
+    }
+    try {
+      // only literals get here, InetAddress parses them without resolving
+      return InetAddress.getByName(value).getAddress();
+    } catch (UnknownHostException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Maps an IPv4 address into IPv6.
+   *
+   * @param address IPv4 or IPv6 address bytes
+   * @return IPv6 address bytes, null if the input was null
+   */
+  private static byte[] toIpv6(final byte[] address) {
+    if (address == null || address.length == 16) {
+      return address;
+    }
+    byte[] mapped = Arrays.copyOf(IPV4_MAPPED, 16);
+    System.arraycopy(address, 0, mapped, 12, 4);
+    return mapped;
+  }
+
+  /** Grows a trie one node per bit, then freezes it into a path compressed table. */
+  private static final class Builder {
+    /** Children, see {@link CidrDomainTable#children}. */
+    private int[] children = new int[64];
+    /** Values, see {@link CidrDomainTable#values}. */
+    private int[] values = new int[32];
+    /** Number of nodes, the root exists from the start. */
+    private int size = 1;
+    /** Domains. */
+    private final List<String> domains = new ArrayList<>();
+    /** Children of the compressed trie. */
+    private int[] frozenChildren;
+    /** Values of the compressed trie. */
+    private int[] frozenValues;
+    /** Prefix lengths of the compressed trie. */
+    private int[] frozenDepths;
+    /** Prefixes of the compressed trie. */
+    private long[] frozenPrefixes;
+    /** Number of nodes of the compressed trie. */
+    private int frozenSize;
+
+    /**
+     * Adds a range, a later range with the same prefix replaces an earlier one.
+     *
+     * @param address IPv6 address bytes
+     * @param length prefix length over 128 bits
+     * @param domain domain of the range
+     */
+    void add(final byte[] address, final int length, final String domain) {
+      int node = 0;
+      for (int bit = 0; bit < length; bit++) {
+        int slot = 2 * node + ((address[bit >>> 3] >>> (7 - (bit & 7))) & 1);
+        if (children[slot] == 0) {
+          if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            children = Arrays.copyOf(children, size * 4);
+          }
+          children[slot] = size++;
+        }
+        node = children[slot];
+      }
+      domains.add(domain);
+      values[node] = domains.size();
+    }
+
+    /**
+     * Freezes the trie, dropping the nodes without domain that have a single child.
+     *
+     * @return the table
+     */
+    CidrDomainTable build() {
+      frozenChildren = new int[2 * size];
+      frozenValues = new int[size];
+      frozenDepths = new int[size];
+      frozenPrefixes = new long[2 * size];
+      frozenSize = 0;
+      copy(0, 0, 0L, 0L);
+      return new CidrDomainTable(
+          Arrays.copyOf(frozenChildren, 2 * frozenSize),
+          Arrays.copyOf(frozenValues, frozenSize),
+          Arrays.copyOf(frozenDepths, frozenSize),
+          Arrays.copyOf(frozenPrefixes, 2 * frozenSize),
+          frozenSize,
+          domains.toArray(new String[0]));
+    }
+
+    /**
+     * Copies a node into the compressed trie, then its children.
+     *
+     * @param node the node
+     * @param depth its prefix length
+     * @param high high 64 bits of its prefix
+     * @param low low 64 bits of its prefix
+     * @return index of the copy
+     */
+    private int copy(final int node, final int depth, final long high, final long low) {
+      int frozen = frozenSize++;
+      frozenValues[frozen] = values[node];
+      frozenDepths[frozen] = depth;
+      frozenPrefixes[2 * frozen] = high;
+      frozenPrefixes[2 * frozen + 1] = low;
+      for (int bit = 0; bit < 2; bit++) {
+        int child = children[2 * node + bit];
+        if (child != 0) {
+          frozenChildren[2 * frozen + bit] = compress(child, depth, high, low, bit);
+        }
+      }
+      return frozen;
+    }
+
+    /**
+     * Copies the first node with a domain or two children on the path starting at a child.
+     *
+     * @param child the child
+     * @param depth prefix length of its parent
+     * @param high high 64 bits of the prefix of its parent
+     * @param low low 64 bits of the prefix of its parent
+     * @param bit bit leading from the parent to the child
+     * @return index of the copy
+     */
+    private int compress(
+        final int child, final int depth, final long high, final long low, final int bit) {
+      int node = child;
+      int nodeDepth = depth;
+      long nodeHigh = high;
+      long nodeLow = low;
+      int nodeBit = bit;
+      while (true) {
+        if (nodeBit != 0) {
+          if (nodeDepth < 64) {
+            nodeHigh |= 1L << (63 - nodeDepth);
+          } else {
+            nodeLow |= 1L << (127 - nodeDepth);
+          }
+        }
+        nodeDepth++;
+        int zero = children[2 * node];
+        int one = children[2 * node + 1];
+        if (values[node] != 0 || (zero != 0) == (one != 0)) {
+          return copy(node, nodeDepth, nodeHigh, nodeLow);
+        }
+        nodeBit = zero != 0 ? 0 : 1;
+        node = zero != 0 ? zero : one;
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a failing service after a number of consecutive failures.
+ *
+ * <p>The breaker is closed while calls succeed. After {@code threshold} consecutive failures it
+ * opens and refuses calls for {@code openSeconds}, then lets a single probe through (half-open). A
+ * successful probe closes it, a failed one opens it again.
+ */
+final class CircuitBreaker {
+  /** State of the breaker. */
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  /** Consecutive failures that open the breaker. */
+  private final int threshold;
+  /** How long the breaker stays open before a probe, in nanoseconds. */
+  private final long openNanos;
+  /** Time source, in nanoseconds. */
+  private final LongSupplier clock;
+  /** Consecutive failures so far. */
+  private int failures;
+  /** When the breaker last opened or let a probe through. */
+  private long openedAt;
+  /** Calls refused while open. */
+  private long rejected;
+
+  CircuitBreaker(final int threshold, final long openSeconds) {
+    this(threshold, openSeconds, System::nanoTime);
+  }
+
+  CircuitBreaker(final int threshold, final long openSeconds, final LongSupplier clock) {
+    this.threshold = Math.max(1, threshold);
+    this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+    this.clock = clock;
+  }
+
+  /**
+   * Whether a call may go through. When half-open only the first caller gets true, the next probe
+   * is allowed after another open period.
+   *
+   * @return true if the call may be made
+   */
+  synchronized boolean allowRequest() {
+    if (failures < threshold) {
+      return true;
+    }
+    long now = clock.getAsLong();
+    if (now - openedAt >= openNanos) {
+      openedAt = now;
+      return true;
+    }
+    rejected++;
+    return false;
+  }
+
+  /** Records a successful call, closing the breaker. */
+  synchronized void recordSuccess() {
+    failures = 0;
+  }
+
+  /** Records a failed call, opening the breaker once the threshold is reached. */
+  synchronized void recordFailure() {
+    failures++;
+    if (failures >= threshold) {
+      openedAt = clock.getAsLong();
+    }
+  }
+
+  /**
+   * The current state.
+   *
+   * @return the state
+   */
+  synchronized State getState() {
+    if (failures < threshold) {
+      return State.CLOSED;
+    }
+    return clock.getAsLong() - openedAt < openNanos ? State.OPEN : State.HALF_OPEN;
+  }
+
+  /**
+   * Calls refused while open.
+   *
+   * @return the number of calls
+   */
+  synchronized long getRejected() {
+    return rejected;
+  }
+}
@@ -0,0 +1,905 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * A minimal DNS client sending A, AAAA and PTR queries to one server, used instead of the JVM
+ * resolver when {@code DnsClient.server} is set.
+ *
+ * <p>Queries go over a few non-blocking UDP channels: callers send their query on one of them and
+ * wait for its answer while a reader thread matches the answers to the queries by ID and channel,
+ * so any number of lookups are in flight at once, up to a window that keeps the socket buffers of
+ * both ends from overflowing. Truncated answers are asked again over TCP. Answers are cached for
+ * the TTL of their records.
+ *
+ * <p>Spreading the queries over {@code DnsClient.sockets} source ports adds a few bits to the
+ * 16-bit ID an off-path attacker has to guess to forge an answer, far fewer than a resolver
+ * drawing a new port per query. The client must only be pointed at a trusted resolver on the
+ * host or the local network, which does that for the queries it sends on.
+ *
+ * <p>Names are queried as given: short names, which need the search domains of the host, are left
+ * to the JVM resolver.
+ */
+final class DnsClient implements HostResolver, Closeable {
+  /** Logging of issues. */
+  private static final transient Logger LOGGER = Logger.getLogger(DnsClient.class.getName());
+  /** IPv4 address record. */
+  static final int A = 1;
+  /** Alias record. */
+  static final int CNAME = 5;
+  /** Reverse lookup record. */
+  static final int PTR = 12;
+  /** IPv6 address record. */
+  static final int AAAA = 28;
+  /** Response code of names that do not exist. */
+  static final int NXDOMAIN = 3;
+  /** Largest DNS message. */
+  private static final int MAX_MESSAGE = 65535;
+  /** Seconds an answer without records is cached, the SOA of the zone not being read. */
+  private static final long NEGATIVE_TTL = 60;
+  /** Default DNS port. */
+  private static final int PORT = 53;
+  /** Number of UDP channels, each on its own source port. */
+  private static final int SOCKETS =
+      Math.max(1, SystemProperties.getInteger(DnsClient.class.getName() + ".sockets", 16));
+
+  /** An answer decoded from the wire. */
+  static final class Response {
+    /** Query ID. */
+    final int id;
+    /** Whether the message is a response. */
+    final boolean response;
+    /** Whether the server truncated the message. */
+    final boolean truncated;
+    /** Response code. */
+    final int rcode;
+    /** Name asked. */
+    final String questionName;
+    /** Type asked. */
+    final int questionType;
+    /** Answer records. */
+    final List<Record> answers;
+
+    Response(
+        final int id,
+        final boolean response,
+        final boolean truncated,
+        final int rcode,
+        final String questionName,
+        final int questionType,
+        final List<Record> answers) {
+      this.id = id;
+      this.response = response;
+      this.truncated = truncated;
+      this.rcode = rcode;
+      this.questionName = questionName;
+      this.questionType = questionType;
+      this.answers = answers;
+    }
+  }
+
+  /** A resource record of an answer. */
+  static final class Record {
+    /** Record type. */
+    final int type;
+    /** Time to live in seconds. */
+    final long ttl;
+    /** Address of A and AAAA records. */
+    final byte[] address;
+    /** Target name of PTR and CNAME records. */
+    final String target;
+
+    Record(final int type, final long ttl, final byte[] address, final String target) {
+      this.type = type;
+      this.ttl = ttl;
+      this.address = address;
+      this.target = target;
+    }
+  }
+
+  /** An answer kept until its records expire. */
+  static final class Answer {
+    /** Addresses of A or AAAA answers. */
+    final List<byte[]> addresses;
+    /** Target of a PTR answer. */
+    final String target;
+    /** When the answer expires, from the clock of the client. */
+    final long expires;
+
+    Answer(final List<byte[]> addresses, final String target, final long expires) {
+      this.addresses = addresses;
+      this.target = target;
+      this.expires = expires;
+    }
+  }
+
+  /** A query waiting for its answer. */
+  private static final class Query {
+    /** Query ID. */
+    final int id;
+    /** Name asked. */
+    final String name;
+    /** Type asked. */
+    final int type;
+    /** Channel the query is sent on, the only one its answer is taken from. */
+    final DatagramChannel channel;
+    /** Completed by the reader thread. */
+    final CompletableFuture<Response> future = new CompletableFuture<>();
+
+    Query(final int id, final String name, final int type, final DatagramChannel channel) {
+      this.id = id;
+      this.name = name;
+      this.type = type;
+      this.channel = channel;
+    }
+  }
+
+  /** The DNS server. */
+  private final InetSocketAddress server;
+  /** Milliseconds to wait for an answer before asking again. */
+  private final long timeout;
+  /** Number of times a query is sent before giving up. */
+  private final int attempts;
+  /** Queries in flight allowed by the window. */
+  private final Semaphore window;
+  /** Maximum number of cached answers. */
+  private final int cacheSize;
+  /** Time source, in nanoseconds. */
+  private final LongSupplier clock;
+  /** Queries waiting for their answer by ID. */
+  private final ConcurrentMap<Integer, Query> pending = new ConcurrentHashMap<>();
+  /** Answers by type and name. */
+  private final ConcurrentMap<String, Answer> cache = new ConcurrentHashMap<>();
+  /** UDP channels to the server, opened on first use. */
+  private DatagramChannel[] channels;
+  /** Wakes the reader thread up when answers arrive. */
+  private Selector selector;
+  /** Waits for a channel whose send buffer is full to accept writes again. */
+  private Selector writer;
+  /** Whether the client was closed. */
+  private volatile boolean closed;
+
+  /**
+   * Creates a client.
+   *
+   * @param server the DNS server
+   * @param timeout milliseconds to wait for an answer before asking again
+   * @param attempts number of times a query is sent before giving up
+   */
+  DnsClient(final InetSocketAddress server, final long timeout, final int attempts) {
+    this(
+        server,
+        timeout,
+        attempts,
+        SystemProperties.getInteger(DnsClient.class.getName() + ".window", 512),
+        10000,
+        System::nanoTime);
+  }
+
+  DnsClient(
+      final InetSocketAddress server,
+      final long timeout,
+      final int attempts,
+      final int window,
+      final int cacheSize,
+      final LongSupplier clock) {
+    this.server = server;
+    this.timeout = timeout;
+    this.attempts = Math.max(1, attempts);
+    // a name's A and AAAA queries take two permits at once
+    this.window = new Semaphore(Math.max(2, window));
+    this.cacheSize = cacheSize;
+    this.clock = clock;
+  }
+
+  /**
+   * The resolver set by the system properties: a client of {@code DnsClient.server}, or the JVM
+   * resolver when it is not set.
+   *
+   * @return the resolver
+   */
+  static HostResolver fromSystemProperties() {
+    String value = SystemProperties.getString(DnsClient.class.getName() + ".server");
+    if (value == null || value.trim().isEmpty()) {
+      return HostResolver.JDK;
+    }
+    try {
+      return new DnsClient(
+          parseServer(value.trim()),
+          SystemProperties.getLong(DnsClient.class.getName() + ".timeout", 1000L),
+          SystemProperties.getInteger(DnsClient.class.getName() + ".attempts", 2));
+    } catch (IllegalArgumentException ex) {
+      LOGGER.log(Level.WARNING, "Invalid DNS server {0}, using the JVM resolver", value);
+      return HostResolver.JDK;
+    }
+  }
+
+  /**
+   * Parses {@code host}, {@code host:port} or {@code [ipv6]:port}.
+   *
+   * @param value the server
+   * @return its address
+   */
+  static InetSocketAddress parseServer(final String value) {
+    String host = value;
+    int port = PORT;
+    int colon = value.lastIndexOf(':');
+    if (value.startsWith("[")) {
+      int close = value.indexOf(']');
+      if (close < 0) {
+        throw new IllegalArgumentException(value);
+      }
+      host = value.substring(1, close);
+      if (close + 1 < value.length()) {
+        port = Integer.parseInt(value.substring(close + 2));
+      }
+    } else if (colon > 0 && value.indexOf(':') == colon) {
+      host = value.substring(0, colon);
+      port = Integer.parseInt(value.substring(colon + 1));
+    }
+    return new InetSocketAddress(host, port);
+  }
+
+  @Override
+  public InetAddress forward(final String host) throws UnknownHostException {
+    return forwardAll(host)[0];
+  }
+
+  @Override
+  public InetAddress[] forwardAll(final String host) throws UnknownHostException {
+    byte[] literal = CidrDomainTable.literalAddress(host);
+    if (literal != null) {
+      return new InetAddress[] {InetAddress.getByAddress(literal)};
+    }
+    String name = host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+    if (name.indexOf('.') < 0) {
+      return HostResolver.JDK.forwardAll(host);
+    }
+    List<InetAddress> addresses = new ArrayList<>();
+    for (Answer answer : lookupAll(name, A, AAAA)) {
+      if (answer != null) {
+        for (byte[] address : answer.addresses) {
+          addresses.add(InetAddress.getByAddress(name, address));
+        }
+      }
+    }
+    if (addresses.isEmpty()) {
+      throw new UnknownHostException(host + ": no address");
+    }
+    return addresses.toArray(new InetAddress[0]);
+  }
+
+  @Override
+  public String reverse(final InetAddress address) {
+    // like the JVM, no reverse lookup for an address resolved from a name
+    String text = address.toString();
+    int slash = text.indexOf('/');
+    if (slash > 0) {
+      return text.substring(0, slash);
+    }
+    try {
+      Answer answer = lookup(reverseName(address.getAddress()), PTR);
+      if (answer.target != null) {
+        return answer.target;
+      }
+    } catch (UnknownHostException ex) {
+      LOGGER.log(Level.FINE, "No PTR record for {0}: {1}", new Object[] {address, ex});
+    }
+    return address.getHostAddress();
+  }
+
+  /**
+   * Looks a name up, from the cache while its records live.
+   *
+   * @param name the name
+   * @param type record type
+   * @return the answer, possibly without records
+   * @throws UnknownHostException when the name does not exist or the server does not answer
+   */
+  Answer lookup(final String name, final int type) throws UnknownHostException {
+    return lookupAll(name, type)[0];
+  }
+
+  /**
+   * Looks several record types of a name up at once, their queries in flight together.
+   *
+   * @param name the name
+   * @param types record types
+   * @return the answers in the order of the types, null for the types that failed
+   * @throws UnknownHostException when every type failed
+   */
+  Answer[] lookupAll(final String name, final int... types) throws UnknownHostException {
+    Answer[] answers = new Answer[types.length];
+    int[] asked = new int[types.length];
+    int count = 0;
+    long now = clock.getAsLong();
+    for (int i = 0; i < types.length; i++) {
+      Answer cached = cache.get(cacheKey(name, types[i]));
+      if (cached != null && cached.expires - now > 0) {
+        answers[i] = cached;
+      } else {
+        asked[count++] = i;
+      }
+    }
+    if (count == 0) {
+      return answers;
+    }
+    int[] askedTypes = new int[count];
+    for (int k = 0; k < count; k++) {
+      askedTypes[k] = types[asked[k]];
+    }
+    Response[] responses = exchange(name, askedTypes);
+    UnknownHostException failure = null;
+    for (int k = 0; k < count; k++) {
+      try {
+        answers[asked[k]] = toAnswer(name, askedTypes[k], responses[k]);
+      } catch (UnknownHostException ex) {
+        failure = ex;
+      }
+    }
+    if (failure != null) {
+      for (Answer answer : answers) {
+        if (answer != null) {
+          return answers;
+        }
+      }
+      throw failure;
+    }
+    return answers;
+  }
+
+  /**
+   * Key of an answer in the cache.
+   *
+   * @param name the name
+   * @param type record type
+   * @return the key
+   */
+  private static String cacheKey(final String name, final int type) {
+    return type + ":" + name.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Turns a response into an answer and caches it for the TTL of its records.
+   *
+   * @param name the name asked
+   * @param type the type asked
+   * @param response the response, null if the server did not answer
+   * @return the answer, possibly without records
+   * @throws UnknownHostException when the name does not exist or the server did not answer
+   */
+  private Answer toAnswer(final String name, final int type, final Response response)
+      throws UnknownHostException {
+    if (response == null) {
+      throw new UnknownHostException(name + ": no answer from " + server);
+    }
+    if (response.rcode == NXDOMAIN) {
+      throw new UnknownHostException(name + ": NXDOMAIN");
+    }
+    if (response.rcode != 0) {
+      throw new UnknownHostException(name + ": response code " + response.rcode);
+    }
+    List<byte[]> addresses = new ArrayList<>();
+    String target = null;
+    long ttl = Long.MAX_VALUE;
+    for (Record record : response.answers) {
+      ttl = Math.min(ttl, record.ttl);
+      if (record.type == type && record.address != null) {
+        addresses.add(record.address);
+      } else if (record.type == type && target == null) {
+        target = record.target;
+      }
+    }
+    if (ttl == Long.MAX_VALUE) {
+      // no record, such as the AAAA records of an IPv4 only host
+      ttl = NEGATIVE_TTL;
+    }
+    Answer answer =
+        new Answer(
+            Collections.unmodifiableList(addresses),
+            target,
+            clock.getAsLong() + TimeUnit.SECONDS.toNanos(ttl));
+    if (ttl > 0) {
+      if (cache.size() >= cacheSize) {
+        long now = clock.getAsLong();
+        cache.values().removeIf(entry -> entry.expires - now <= 0);
+        if (cache.size() >= cacheSize) {
+          cache.clear();
+        }
+      }
+      cache.put(cacheKey(name, type), answer);
+    }
+    return answer;
+  }
+
+  /**
+   * Sends queries for several types of a name over UDP together, asking again the ones that
+   * time out and over TCP the ones whose answer is truncated.
+   *
+   * @param name the name
+   * @param types record types
+   * @return the responses in the order of the types, null for the types never answered
+   * @throws UnknownHostException when the queries cannot be sent
+   */
+  private Response[] exchange(final String name, final int... types) throws UnknownHostException {
+    Response[] responses = new Response[types.length];
+    try {
+      for (int attempt = 0; attempt < attempts; attempt++) {
+        int missing = 0;
+        for (Response response : responses) {
+          if (response == null) {
+            missing++;
+          }
+        }
+        if (missing == 0) {
+          break;
+        }
+        window.acquire(missing);
+        Query[] queries = new Query[types.length];
+        try {
+          for (int i = 0; i < types.length; i++) {
+            if (responses[i] == null) {
+              queries[i] = send(name, types[i]);
+            }
+          }
+          long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+          for (int i = 0; i < types.length; i++) {
+            if (queries[i] != null) {
+              try {
+                responses[i] =
+                    queries[i].future.get(
+                        Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+              } catch (TimeoutException ex) {
+                // asked again on the next attempt
+              }
+            }
+          }
+        } finally {
+          for (Query query : queries) {
+            if (query != null) {
+              pending.remove(query.id, query);
+            }
+          }
+          window.release(missing);
+        }
+      }
+      for (int i = 0; i < types.length; i++) {
+        if (responses[i] != null && responses[i].truncated) {
+          responses[i] = exchangeTcp(name, types[i]);
+        }
+      }
+    } catch (IOException | ExecutionException | IllegalArgumentException ex) {
+      UnknownHostException failure = new UnknownHostException(name + ": " + ex.getMessage());
+      failure.initCause(ex);
+      throw failure;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new UnknownHostException(name + ": interrupted");
+    }
+    return responses;
+  }
+
+  /**
+   * Sends a query over UDP without waiting for its answer, outside of the window.
+   *
+   * @param name the name
+   * @param type record type
+   * @return the future response, completed by the reader thread
+   * @throws IOException when the query cannot be sent
+   */
+  CompletableFuture<Response> query(final String name, final int type) throws IOException {
+    return send(name, type).future;
+  }
+
+  /**
+   * Registers a query under a free ID and sends it.
+   *
+   * @param name the name
+   * @param type record type
+   * @return the query
+   * @throws IOException when the query cannot be sent
+   */
+  private Query send(final String name, final int type) throws IOException {
+    DatagramChannel[] udp = open();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    DatagramChannel channel = udp[random.nextInt(udp.length)];
+    Query query;
+    do {
+      query = new Query(random.nextInt(0x10000), name, type, channel);
+    } while (pending.putIfAbsent(query.id, query) != null);
+    ByteBuffer message = encodeQuery(query.id, name, type);
+    try {
+      // a non-blocking channel writes nothing while its send buffer is full
+      while (channel.write(message) == 0) {
+        awaitWritable(channel);
+      }
+    } catch (IOException | RuntimeException ex) {
+      pending.remove(query.id, query);
+      throw ex;
+    }
+    return query;
+  }
+
+  /**
+   * Waits for the send buffer of a channel to have room, senders finding a full buffer taking
+   * turns.
+   *
+   * @param channel the channel
+   * @throws IOException when the buffer stays full for the whole timeout
+   */
+  private void awaitWritable(final DatagramChannel channel) throws IOException {
+    synchronized (writer) {
+      SelectionKey key = channel.keyFor(writer);
+      if (key == null) {
+        key = channel.register(writer, SelectionKey.OP_WRITE);
+      } else {
+        key.interestOps(SelectionKey.OP_WRITE);
+      }
+      try {
+        if (writer.select(timeout) == 0) {
+          throw new IOException("Send buffer to " + server + " full for " + timeout + " ms");
+        }
+      } finally {
+        writer.selectedKeys().clear();
+        // only the channel waited for is selected
+        key.interestOps(0);
+      }
+    }
+  }
+
+  /**
+   * Asks again over TCP, for answers too large for UDP.
+   *
+   * @param name the name
+   * @param type record type
+   * @return the response
+   * @throws IOException when the server cannot be reached or answers something else
+   */
+  private Response exchangeTcp(final String name, final int type) throws IOException {
+    int id = ThreadLocalRandom.current().nextInt(0x10000);
+    ByteBuffer message = encodeQuery(id, name, type);
+    try (Socket socket = new Socket()) {
+      socket.connect(server, (int) timeout);
+      socket.setSoTimeout((int) timeout);
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeShort(message.remaining());
+      out.write(message.array(), 0, message.remaining());
+      out.flush();
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      byte[] answer = new byte[in.readUnsignedShort()];
+      in.readFully(answer);
+      Response response = parse(ByteBuffer.wrap(answer));
+      if (response.id != id || !matches(response, name, type)) {
+        throw new IOException("Unexpected TCP answer for " + name);
+      }
+      return response;
+    } catch (RuntimeException ex) {
+      throw new IOException("Malformed TCP answer for " + name, ex);
+    }
+  }
+
+  /**
+   * Opens the UDP channels, each bound to its own ephemeral port, and starts the reader thread on
+   * first use.
+   *
+   * @return the channels
+   * @throws IOException when the channels cannot be opened
+   */
+  private synchronized DatagramChannel[] open() throws IOException {
+    if (closed) {
+      throw new IOException("DNS client closed");
+    }
+    if (channels == null) {
+      DatagramChannel[] udp = new DatagramChannel[SOCKETS];
+      Selector readSelector = Selector.open();
+      Selector writeSelector = null;
+      try {
+        writeSelector = Selector.open();
+        for (int i = 0; i < udp.length; i++) {
+          udp[i] = DatagramChannel.open();
+          udp[i].configureBlocking(false);
+          udp[i].connect(server);
+          udp[i].register(readSelector, SelectionKey.OP_READ);
+        }
+      } catch (IOException ex) {
+        for (DatagramChannel channel : udp) {
+          if (channel != null) {
+            channel.close();
+          }
+        }
+        readSelector.close();
+        if (writeSelector != null) {
+          writeSelector.close();
+        }
+        throw ex;
+      }
+      selector = readSelector;
+      writer = writeSelector;
+      channels = udp;
+      Thread reader = new Thread(this::receive, "NetDomainLabeler DNS client " + server);
+      reader.setDaemon(true);
+      reader.start();
+    }
+    return channels;
+  }
+
+  /** Reader thread: hands each answer to the query with the same ID sent on the same channel. */
+  private void receive() {
+    ByteBuffer buffer = ByteBuffer.allocate(MAX_MESSAGE);
+    while (!closed) {
+      try {
+        selector.select(1000);
+        for (SelectionKey key : selector.selectedKeys()) {
+          DatagramChannel channel = (DatagramChannel) key.channel();
+          buffer.clear();
+          while (channel.read(buffer) > 0) {
+            buffer.flip();
+            dispatch(buffer, channel);
+            buffer.clear();
+          }
+        }
+        selector.selectedKeys().clear();
+      } catch (IOException ex) {
+        // the server port may be unreachable for a while, queries time out meanwhile
+        if (!closed) {
+          LOGGER.log(Level.FINE, "Error reading DNS answers from " + server, ex);
+        }
+      } catch (RuntimeException ex) {
+        if (!closed) {
+          LOGGER.log(Level.WARNING, "Error reading DNS answers from " + server, ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Completes the query an answer is for. Answers to no pending query, to another question or
+   * arriving on another channel than the query was sent on are dropped.
+   *
+   * @param message the answer
+   * @param channel the channel the answer arrived on
+   */
+  private void dispatch(final ByteBuffer message, final DatagramChannel channel) {
+    Response response;
+    try {
+      response = parse(message);
+    } catch (RuntimeException ex) {
+      LOGGER.log(Level.FINE, "Dropping malformed DNS answer", ex);
+      return;
+    }
+    Query query = pending.get(response.id);
+    if (query != null
+        && query.channel == channel
+        && matches(response, query.name, query.type)
+        && pending.remove(response.id, query)) {
+      query.future.complete(response);
+    }
+  }
+
+  /**
+   * Whether a response answers the question.
+   *
+   * @param response the response
+   * @param name the name asked
+   * @param type the type asked
+   * @return true if it answers it
+   */
+  private static boolean matches(final Response response, final String name, final int type) {
+    return response.response
+        && response.questionType == type
+        && name.equalsIgnoreCase(response.questionName);
+  }
+
+  /** Stops the reader thread and fails the pending queries. */
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    for (Query query : pending.values()) {
+      query.future.completeExceptionally(new IOException("DNS client closed"));
+    }
+    pending.clear();
+    if (channels != null) {
+      selector.close();
+      writer.close();
+      for (DatagramChannel channel : channels) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Encodes a recursive query.
+   *
+   * @param id query ID
+   * @param name the name, with or without trailing dot
+   * @param type record type
+   * @return the message, ready to be written
+   */
+  static ByteBuffer encodeQuery(final int id, final String name, final int type) {
+    String labels = name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    ByteBuffer message = ByteBuffer.allocate(12 + labels.length() + 2 + 4);
+    message.putShort((short) id);
+    message.putShort((short) 0x0100);
+    message.putShort((short) 1);
+    message.putShort((short) 0);
+    message.putShort((short) 0);
+    message.putShort((short) 0);
+    int start = 0;
+    while (start <= labels.length()) {
+      int end = labels.indexOf('.', start);
+      if (end < 0) {
+        end = labels.length();
+      }
+      if (end == start || end - start > 63) {
+        throw new IllegalArgumentException("Invalid name " + name);
+      }
+      message.put((byte) (end - start));
+      message.put(labels.substring(start, end).getBytes(StandardCharsets.US_ASCII));
+      start = end + 1;
+    }
+    message.put((byte) 0);
+    message.putShort((short) type);
+    message.putShort((short) 1);
+    message.flip();
+    return message;
+  }
+
+  /**
+   * Decodes a message.
+   *
+   * @param message the message
+   * @return the response
+   * @throws RuntimeException when the message is malformed
+   */
+  static Response parse(final ByteBuffer message) {
+    int id = message.getShort() & 0xffff;
+    int flags = message.getShort() & 0xffff;
+    int questions = message.getShort() & 0xffff;
+    int answers = message.getShort() & 0xffff;
+    message.getShort();
+    message.getShort();
+    String questionName = null;
+    int questionType = 0;
+    for (int i = 0; i < questions; i++) {
+      questionName = readName(message);
+      questionType = message.getShort() & 0xffff;
+      message.getShort();
+    }
+    List<Record> records = new ArrayList<>(answers);
+    for (int i = 0; i < answers; i++) {
+      readName(message);
+      int type = message.getShort() & 0xffff;
+      message.getShort();
+      long ttl = message.getInt() & 0xffffffffL;
+      int length = message.getShort() & 0xffff;
+      int end = message.position() + length;
+      if ((type == A && length == 4) || (type == AAAA && length == 16)) {
+        byte[] address = new byte[length];
+        message.get(address);
+        records.add(new Record(type, ttl, address, null));
+      } else if (type == PTR || type == CNAME) {
+        records.add(new Record(type, ttl, null, readName(message)));
+      }
+      message.position(end);
+    }
+    return new Response(
+        id,
+        (flags & 0x8000) != 0,
+        (flags & 0x0200) != 0,
+        flags & 0xf,
+        questionName,
+        questionType,
+        records);
+  }
+
+  /**
+   * Reads a possibly compressed name and moves past it.
+   *
+   * @param message the message, positioned on the name
+   * @return the name, without trailing dot
+   */
+  private static String readName(final ByteBuffer message) {
+    StringBuilder name = new StringBuilder();
+    int position = message.position();
+    int next = -1;
+    int jumps = 0;
+    while (true) {
+      int length = message.get(position) & 0xff;
+      if ((length & 0xc0) == 0xc0) {
+        if (++jumps > 16) {
+          throw new IllegalArgumentException("Compression loop");
+        }
+        if (next < 0) {
+          next = position + 2;
+        }
+        position = ((length & 0x3f) << 8) | (message.get(position + 1) & 0xff);
+      } else if (length == 0) {
+        if (next < 0) {
+          next = position + 1;
+        }
+        break;
+      } else {
+        if (name.length() > 0) {
+          name.append('.');
+        }
+        for (int i = 1; i <= length; i++) {
+          name.append((char) (message.get(position + i) & 0xff));
+        }
+        position += length + 1;
+      }
+    }
+    message.position(next);
+    return name.toString();
+  }
+
+  /**
+   * The name of the PTR record of an address.
+   *
+   * @param address IPv4 or IPv6 address bytes
+   * @return the in-addr.arpa or ip6.arpa name
+   */
+  static String reverseName(final byte[] address) {
+    StringBuilder name = new StringBuilder();
+    for (int i = address.length - 1; i >= 0; i--) {
+      int octet = address[i] & 0xff;
+      if (address.length == 4) {
+        name.append(octet).append('.');
+      } else {
+        name.append(Character.forDigit(octet & 0xf, 16)).append('.');
+        name.append(Character.forDigit(octet >> 4, 16)).append('.');
+      }
+    }
+    return name.append(address.length == 4 ? "in-addr.arpa" : "ip6.arpa").toString();
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Host value to domain cache shared by all nodes. Failed resolutions are cached too, with their own
+ * time to live, so that a dead DNS entry is not retried on every relabel.
+ */
+final class DomainCache {
+  /**
+   * Resolves a host value to its domain.
+   *
+   * <p>Returns null when the domain cannot be resolved.
+   */
+  interface Loader {
+    /**
+     * Resolves the domain.
+     *
+     * @param hostValue whatever you have for the host. ip, name, fqdn
+     * @return domain or null
+     */
+    String load(String hostValue);
+  }
+
+  /** A cached resolution, domain is null for a failed one. */
+  private static final class Entry {
+    /** Resolved domain or null. */
+    private final String domain;
+    /** Clock value after which the entry is stale. */
+    private final long expiresAt;
+
+    Entry(final String domain, final long expiresAt) {
+      this.domain = domain;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /** Time to live of resolved domains in nanoseconds. */
+  private final long positiveTtl;
+  /** Time to live of failed resolutions in nanoseconds. */
+  private final long negativeTtl;
+  /** Source of time in nanoseconds. */
+  private final LongSupplier clock;
+  /** Entries in least recently used order, guarded by itself. */
+  private final Map<String, Entry> entries;
+  /** Lookups answered from the cache. */
+  private final AtomicLong hits = new AtomicLong();
+  /** Lookups that went to the loader. */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache.
+   *
+   * @param positiveTtlSeconds time to live of resolved domains
+   * @param negativeTtlSeconds time to live of failed resolutions
+   * @param maxSize maximum number of entries, least recently used are evicted first
+   */
+  DomainCache(final long positiveTtlSeconds, final long negativeTtlSeconds, final int maxSize) {
+    this(positiveTtlSeconds, negativeTtlSeconds, maxSize, System::nanoTime);
+  }
+
+  /**
+   * Creates a cache with a given clock.
+   *
+   * @param positiveTtlSeconds time to live of resolved domains
+   * @param negativeTtlSeconds time to live of failed resolutions
+   * @param maxSize maximum number of entries, least recently used are evicted first
+   * @param clock source of time in nanoseconds
+   */
+  DomainCache(
+      final long positiveTtlSeconds,
+      final long negativeTtlSeconds,
+      final int maxSize,
+      final LongSupplier clock) {
+    this.positiveTtl = TimeUnit.SECONDS.toNanos(positiveTtlSeconds);
+    this.negativeTtl = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+    this.clock = clock;
+    this.entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+          }
+        };
+  }
+
+  /**
+   * Returns the domain of the host value, loading it when missing or stale.
+   *
+   * <p>The loader runs without holding the cache lock.
+   *
+   * @param hostValue whatever you have for the host. ip, name, fqdn
+   * @param loader resolves the domain on a miss
+   * @return domain or null
+   */
+  String get(final String hostValue, final Loader loader) {
+    long now = clock.getAsLong();
+    synchronized (entries) {
+      Entry entry = entries.get(hostValue);
+      if (entry != null && now - entry.expiresAt < 0) {
+        hits.incrementAndGet();
+        return entry.domain;
+      }
+    }
+    misses.incrementAndGet();
+    String domain = loader.load(hostValue);
+    long ttl = domain == null ? negativeTtl : positiveTtl;
+    synchronized (entries) {
+      entries.put(hostValue, new Entry(domain, clock.getAsLong() + ttl));
+    }
+    return domain;
+  }
+
+  /**
+   * Forgets the resolution of a host value.
+   *
+   * @param hostValue whatever you have for the host. ip, name, fqdn
+   */
+  void invalidate(final String hostValue) {
+    synchronized (entries) {
+      entries.remove(hostValue);
+    }
+  }
+
+  /** Forgets all resolutions. */
+  void invalidateAll() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Number of cached entries, stale ones included.
+   *
+   * @return entries
+   */
+  int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Lookups answered from the cache.
+   *
+   * @return hits
+   */
+  long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Lookups that went to the loader.
+   *
+   * @return misses
+   */
+  long getMisses() {
+    return misses.get();
+  }
+}
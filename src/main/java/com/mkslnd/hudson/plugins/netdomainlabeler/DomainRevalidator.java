@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Periodically resolves the domain of every online node again, in small batches spread over time,
+ * and only refreshes the label model for the nodes whose labels changed.
+ */
+@Extension
+public class DomainRevalidator extends AsyncPeriodicWork {
+  /** Minutes between two sweeps. */
+  private static final long PERIOD =
+      SystemProperties.getLong(DomainRevalidator.class.getName() + ".period", 60L);
+  /** Nodes resolved per batch. */
+  private static final int BATCH_SIZE =
+      SystemProperties.getInteger(DomainRevalidator.class.getName() + ".batchSize", 50);
+  /** Milliseconds between two batches, a random jitter of up to as much is added. */
+  private static final long BATCH_DELAY =
+      SystemProperties.getLong(DomainRevalidator.class.getName() + ".batchDelay", 1000L);
+
+  public DomainRevalidator() {
+    super("NetDomainLabeler revalidation");
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return TimeUnit.MINUTES.toMillis(PERIOD);
+  }
+
+  @Override
+  public long getInitialDelay() {
+    return ThreadLocalRandom.current().nextLong(getRecurrencePeriod());
+  }
+
+  @Override
+  protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) {
+      return;
+    }
+    List<Computer> computers = new ArrayList<>();
+    for (Computer computer : jenkins.getComputers()) {
+      if (computer.isOnline()) {
+        computers.add(computer);
+      }
+    }
+    Collections.shuffle(computers);
+    int changed = revalidate(computers);
+    listener.getLogger().println("Revalidated " + computers.size() + ", changed " + changed);
+  }
+
+  /**
+   * Resolves the computers again in rate limited batches.
+   *
+   * @param computers computers to revalidate
+   * @return number of nodes whose labels changed
+   * @throws InterruptedException on thread interruption
+   */
+  static int revalidate(final List<Computer> computers) throws InterruptedException {
+    return revalidate(computers, BATCH_SIZE, BATCH_DELAY);
+  }
+
+  /**
+   * Resolves the computers again in batches.
+   *
+   * @param computers computers to revalidate
+   * @param batchSize computers resolved per batch
+   * @param batchDelay milliseconds between two batches, a random jitter of up to as much is added
+   * @return number of nodes whose labels changed
+   * @throws InterruptedException on thread interruption
+   */
+  static int revalidate(final List<Computer> computers, final int batchSize, final long batchDelay)
+      throws InterruptedException {
+    NodeLabelMgr mgr = ExtensionList.lookupSingleton(NodeLabelMgr.class);
+    int changed = 0;
+    for (int from = 0; from < computers.size(); from += batchSize) {
+      if (from > 0) {
+        Thread.sleep(batchDelay + ThreadLocalRandom.current().nextLong(batchDelay + 1));
+      }
+      List<Computer> batch = computers.subList(from, Math.min(from + batchSize, computers.size()));
+      for (Computer computer : batch) {
+        try {
+          String hostname = computer.getHostName();
+          if (hostname != null) {
+            NodeLabelMgr.invalidateDomain(hostname);
+          }
+        } catch (IOException ex) {
+          // resolution will report it
+        }
+      }
+      Map<String, Collection<LabelAtom>> resolved = mgr.resolveAll(batch);
+      // computers that went offline or were deleted meanwhile were evicted, do not bring them back
+      Set<String> live = new HashSet<>();
+      for (Computer computer : batch) {
+        if (computer.isOnline() && computer.getNode() != null) {
+          live.add(computer.getName());
+        }
+      }
+      resolved.keySet().retainAll(live);
+      Set<LabelAtom> affected = new HashSet<>();
+      changed += NodeLabelMgr.publish(resolved, affected).size();
+      NodeLabelMgr.refreshLabels(affected);
+    }
+    return changed;
+  }
+}
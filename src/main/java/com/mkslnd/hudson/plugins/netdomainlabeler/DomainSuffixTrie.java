@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.model.labels.LabelAtom;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Domains seen so far, as a trie of their labels read from the right, used to list a domain and
+ * its ancestors down to a given depth without crossing a public suffix such as {@code com} or
+ * {@code co.uk}.
+ *
+ * <p>Each trie node computes its list and the matching {@link InternedLabelSet} once, and every
+ * node of that domain shares them; sibling domains share their ancestor trie nodes and domain
+ * strings. The label set is made again when Jenkins trimmed one of its labels.
+ */
+final class DomainSuffixTrie {
+  /** Logging of issues. */
+  private static final transient Logger LOGGER = Logger.getLogger(DomainSuffixTrie.class.getName());
+  /** Public suffixes of more than one label shipped with the plugin. */
+  private static final Set<String> PUBLIC_SUFFIXES = loadPublicSuffixes();
+
+  /** A domain in the trie, whatever its case. */
+  private static final class TrieNode {
+    /** The lower case domain, null for the root. */
+    private final String domain;
+    /** The parent domain, null for the root. */
+    private final TrieNode parent;
+    /** Whether the domain is a public suffix. */
+    private final boolean publicSuffix;
+    /** Sub-domains by their lower case leftmost label. */
+    private final ConcurrentMap<String, TrieNode> children = new ConcurrentHashMap<>();
+    /** Number of domains in the lineage, computed on first use. */
+    private volatile int lineageSize;
+    /** The last spelling asked for, with its lineage and labels. */
+    private volatile Spelling spelling;
+
+    TrieNode(final String domain, final TrieNode parent, final boolean publicSuffix) {
+      this.domain = domain;
+      this.parent = parent;
+      this.publicSuffix = publicSuffix;
+    }
+  }
+
+  /** A domain as spelled by a caller, with its lineage and labels. */
+  private static final class Spelling {
+    /** The domain followed by its ancestors, in the case of the domain. */
+    private final List<String> lineage;
+    /** The labels of the lineage, computed on first use. */
+    private volatile Set<LabelAtom> labels;
+
+    Spelling(final List<String> lineage) {
+      this.lineage = lineage;
+    }
+  }
+
+  /** Number of ancestors listed after the domain itself. */
+  private final int depth;
+  /** The root, above the top level domains. */
+  private final TrieNode root = new TrieNode(null, null, true);
+
+  /**
+   * Creates a trie.
+   *
+   * @param depth number of ancestors listed after the domain itself
+   */
+  DomainSuffixTrie(final int depth) {
+    this.depth = depth;
+  }
+
+  /**
+   * The labels of the domain followed by up to {@code depth} ancestors, stopping before a public
+   * suffix, in the case of the domain.
+   *
+   * @param domain the domain
+   * @param atoms gives the label of a domain
+   * @return immutable set shared by every caller asking for the same domain, made again when
+   *     Jenkins dropped one of its labels
+   */
+  Set<LabelAtom> labelsOf(final String domain, final Function<String, LabelAtom> atoms) {
+    Spelling spelling = find(domain);
+    if (spelling == null) {
+      return Collections.emptySet();
+    }
+    Set<LabelAtom> labels = spelling.labels;
+    if (labels == null || !InternedLabelSet.isCurrent(labels, atoms)) {
+      List<LabelAtom> computed = new ArrayList<>();
+      for (String name : spelling.lineage) {
+        computed.add(atoms.apply(name));
+      }
+      labels = new InternedLabelSet(computed);
+      spelling.labels = labels;
+    }
+    return labels;
+  }
+
+  /**
+   * The domain followed by up to {@code depth} ancestors, stopping before a public suffix, in the
+   * case of the domain.
+   *
+   * @param domain the domain
+   * @return immutable list shared by every caller asking for the same domain
+   */
+  List<String> lineageOf(final String domain) {
+    Spelling spelling = find(domain);
+    return spelling == null ? Collections.emptyList() : spelling.lineage;
+  }
+
+  /**
+   * The lineage of a domain, with or without a trailing dot. Public suffixes are matched in any
+   * case, but the lineage keeps the case of the domain, as labels did before ancestors were added.
+   *
+   * @param domain the domain
+   * @return the spelling, null for an empty domain
+   */
+  private Spelling find(final String domain) {
+    String name = domain.endsWith(".") ? domain.substring(0, domain.length() - 1) : domain;
+    if (name.isEmpty()) {
+      return null;
+    }
+    TrieNode node = nodeOf(name.toLowerCase(Locale.ENGLISH));
+    Spelling spelling = node.spelling;
+    if (spelling == null || !spelling.lineage.get(0).equals(name)) {
+      int size = lineageSize(node);
+      List<String> computed = new ArrayList<>(size);
+      computed.add(name);
+      for (int start = 0; computed.size() < size; ) {
+        start = name.indexOf('.', start) + 1;
+        computed.add(name.substring(start));
+      }
+      spelling = new Spelling(Collections.unmodifiableList(computed));
+      node.spelling = spelling;
+    }
+    return spelling;
+  }
+
+  /**
+   * Number of domains in the lineage of the trie node: its own and up to {@code depth} ancestors.
+   *
+   * @param node trie node of the domain
+   * @return the size of the lineage
+   */
+  private int lineageSize(final TrieNode node) {
+    int size = node.lineageSize;
+    if (size == 0) {
+      size = 1;
+      for (TrieNode ancestor = node.parent;
+          size <= depth && !ancestor.publicSuffix;
+          ancestor = ancestor.parent) {
+        size++;
+      }
+      node.lineageSize = size;
+    }
+    return size;
+  }
+
+  /**
+   * The trie node of the domain, created with its ancestors if missing.
+   *
+   * @param domain lower case domain
+   * @return the trie node
+   */
+  private TrieNode nodeOf(final String domain) {
+    TrieNode node = root;
+    int end = domain.length();
+    while (end > 0) {
+      int start = domain.lastIndexOf('.', end - 1) + 1;
+      String label = domain.substring(start, end);
+      TrieNode parent = node;
+      node =
+          parent.children.computeIfAbsent(
+              label,
+              key -> {
+                String name = parent == root ? key : key + '.' + parent.domain;
+                return new TrieNode(name, parent, parent == root || PUBLIC_SUFFIXES.contains(name));
+              });
+      end = start - 1;
+    }
+    return node;
+  }
+
+  /**
+   * Reads the public suffixes shipped with the plugin.
+   *
+   * @return the suffixes
+   */
+  private static Set<String> loadPublicSuffixes() {
+    Set<String> suffixes = new HashSet<>();
+    try (InputStream in = DomainSuffixTrie.class.getResourceAsStream("public-suffixes.txt")) {
+      if (in != null) {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (!line.isEmpty() && !line.startsWith("//")) {
+            suffixes.add(line.toLowerCase(Locale.ENGLISH));
+          }
+        }
+      }
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to read public suffixes", ex);
+    }
+    return Collections.unmodifiableSet(suffixes);
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * How domain resolutions are run, chosen with the {@code NodeLabelMgr.executor} system property:
+ * {@code bounded}, {@code caller-runs}, {@code virtual} or {@code auto}, the default, which picks
+ * virtual threads when the JVM has them and a bounded pool otherwise.
+ *
+ * <p>Virtual threads are created through reflection so the plugin still runs on Java 8.
+ */
+enum ExecutorMode {
+  /** A fixed pool of platform threads. */
+  BOUNDED,
+  /** On the thread asking for the resolution, blocking it until done. */
+  CALLER_RUNS,
+  /** A new virtual thread per resolution, blocking DNS calls then cost next to nothing. */
+  VIRTUAL;
+
+  /** Logging of issues. */
+  private static final transient Logger LOGGER = Logger.getLogger(ExecutorMode.class.getName());
+
+  /**
+   * The mode set by the system property.
+   *
+   * @return the mode
+   */
+  static ExecutorMode configured() {
+    String value =
+        SystemProperties.getString(NodeLabelMgr.class.getName() + ".executor", "auto")
+            .trim()
+            .toLowerCase(Locale.ENGLISH);
+    switch (value) {
+      case "bounded":
+        return BOUNDED;
+      case "caller-runs":
+        return CALLER_RUNS;
+      case "virtual":
+        if (hasVirtualThreads()) {
+          return VIRTUAL;
+        }
+        LOGGER.log(Level.WARNING, "Virtual threads are not available, using a bounded pool");
+        return BOUNDED;
+      case "auto":
+        return hasVirtualThreads() ? VIRTUAL : BOUNDED;
+      default:
+        LOGGER.log(Level.WARNING, "Unknown executor {0}, using auto", value);
+        return hasVirtualThreads() ? VIRTUAL : BOUNDED;
+    }
+  }
+
+  /**
+   * Whether the JVM has virtual threads.
+   *
+   * @return true from Java 21 on
+   */
+  static boolean hasVirtualThreads() {
+    return virtualThreads(ExecutorMode.class.getSimpleName()) != null;
+  }
+
+  /**
+   * Creates the executor of the resolution pipeline.
+   *
+   * @param name prefix of the thread names
+   * @param workers number of threads of the bounded pool
+   * @param capacity number of resolutions waiting for a thread of the bounded pool
+   * @return the executor
+   */
+  Executor pipeline(final String name, final int workers, final int capacity) {
+    switch (this) {
+      case CALLER_RUNS:
+        return Runnable::run;
+      case VIRTUAL:
+        ThreadFactory factory = virtualThreads(name);
+        if (factory != null) {
+          return perTask(factory);
+        }
+        // fall through, the JVM lost virtual threads since the mode was chosen
+      default:
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(
+                workers,
+                workers,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(capacity),
+                new NamingThreadFactory(new DaemonThreadFactory(), name),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+  }
+
+  /**
+   * Creates an executor for tasks that must run on their own thread, such as lookups abandoned at
+   * their deadline.
+   *
+   * @param name prefix of the thread names
+   * @return the executor
+   */
+  ExecutorService tasks(final String name) {
+    if (this == VIRTUAL) {
+      ThreadFactory factory = virtualThreads(name);
+      if (factory != null) {
+        return perTask(factory);
+      }
+    }
+    return Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), name));
+  }
+
+  /**
+   * A factory of virtual threads.
+   *
+   * @param name prefix of the thread names
+   * @return the factory, or null when the JVM has no virtual threads
+   */
+  private static ThreadFactory virtualThreads(final String name) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder =
+          builderClass.getMethod("name", String.class, long.class).invoke(builder, name + " ", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      // Java before 21, or 19 and 20 without preview features
+      return null;
+    }
+  }
+
+  /**
+   * An executor starting a thread per task.
+   *
+   * @param factory makes the threads
+   * @return the executor
+   */
+  private static ExecutorService perTask(final ThreadFactory factory) {
+    try {
+      return (ExecutorService)
+          Executors.class
+              .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+              .invoke(null, factory);
+    } catch (ReflectiveOperationException ex) {
+      // a cached pool of virtual threads starts a thread per task all the same
+      return Executors.newCachedThreadPool(factory);
+    }
+  }
+}
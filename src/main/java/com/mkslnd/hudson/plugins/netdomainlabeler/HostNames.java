@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+/**
+ * Tells IP literals from host names and takes the domain out of fully qualified names, without
+ * regular expressions, DNS or any allocation but the returned domain.
+ */
+final class HostNames {
+  /** Longest name, without the trailing dot. */
+  private static final int MAX_NAME_LENGTH = 253;
+  /** Longest label. */
+  private static final int MAX_LABEL_LENGTH = 63;
+
+  private HostNames() {}
+
+  /**
+   * Whether the value is an IPv4 or IPv6 literal.
+   *
+   * @param value candidate literal
+   * @return true for an IP literal
+   */
+  static boolean isIpLiteral(final String value) {
+    return isIpv4Literal(value, 0, value.length()) || isIpv6Literal(value);
+  }
+
+  /**
+   * Whether the characters between the indexes are a dotted quad.
+   *
+   * @param value the string
+   * @param from first index, inclusive
+   * @param to last index, exclusive
+   * @return true for an IPv4 literal
+   */
+  static boolean isIpv4Literal(final String value, final int from, final int to) {
+    int parts = 0;
+    int digits = 0;
+    int part = 0;
+    for (int i = from; i < to; i++) {
+      char c = value.charAt(i);
+      if (c == '.') {
+        if (digits == 0 || ++parts > 3) {
+          return false;
+        }
+        digits = 0;
+        part = 0;
+      } else if (c >= '0' && c <= '9') {
+        part = part * 10 + (c - '0');
+        if (++digits > 3 || part > 255) {
+          return false;
+        }
+      } else {
+        return false;
+      }
+    }
+    return parts == 3 && digits > 0;
+  }
+
+  /**
+   * Whether the value is an IPv6 literal, optionally in brackets, with a zone or an embedded
+   * IPv4 address.
+   *
+   * @param value candidate literal
+   * @return true for an IPv6 literal
+   */
+  static boolean isIpv6Literal(final String value) {
+    int from = 0;
+    int to = value.length();
+    if (to > 1 && value.charAt(0) == '[' && value.charAt(to - 1) == ']') {
+      from = 1;
+      to--;
+    }
+    int zone = value.indexOf('%', from);
+    if (zone >= 0 && zone < to) {
+      to = zone;
+    }
+    int colons = 0;
+    int groupStart = from;
+    int groupDigits = 0;
+    for (int i = from; i < to; i++) {
+      char c = value.charAt(i);
+      if (c == ':') {
+        colons++;
+        groupStart = i + 1;
+        groupDigits = 0;
+      } else if (c == '.') {
+        // embedded IPv4 address, last group only
+        return colons >= 2 && colons <= 7 && isIpv4Literal(value, groupStart, to);
+      } else if (Character.digit(c, 16) >= 0) {
+        if (++groupDigits > 4) {
+          return false;
+        }
+      } else {
+        return false;
+      }
+    }
+    return colons >= 2 && colons <= 7;
+  }
+
+  /**
+   * Whether the value is a syntactically valid host name: dot separated labels of letters, digits
+   * and inner hyphens, with an optional trailing dot and a top-level label that is not numeric. It
+   * holds none of the operator characters of label expressions, so it is safe as a label.
+   *
+   * @param value candidate name, may be null
+   * @return true for a host name, false for IP literals and anything else
+   */
+  static boolean isHostName(final String value) {
+    if (value == null) {
+      return false;
+    }
+    int end = value.length();
+    if (end > 0 && value.charAt(end - 1) == '.') {
+      end--;
+    }
+    if (end == 0 || end > MAX_NAME_LENGTH) {
+      return false;
+    }
+    int labelStart = 0;
+    boolean numericLabel = true;
+    for (int i = 0; i <= end; i++) {
+      char c = i == end ? '.' : value.charAt(i);
+      if (c == '.') {
+        int length = i - labelStart;
+        if (length == 0
+            || length > MAX_LABEL_LENGTH
+            || value.charAt(labelStart) == '-'
+            || value.charAt(i - 1) == '-') {
+          return false;
+        }
+        if (i < end) {
+          labelStart = i + 1;
+          numericLabel = true;
+        }
+      } else if (c >= '0' && c <= '9') {
+        continue;
+      } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-') {
+        numericLabel = false;
+      } else {
+        return false;
+      }
+    }
+    return !numericLabel;
+  }
+
+  /**
+   * The domain of a fully qualified host name: everything after its first label, without the
+   * trailing dot if any.
+   *
+   * @param host host value
+   * @return the domain, or null for IP literals, short names and invalid names
+   */
+  static String domainOf(final String host) {
+    if (host == null) {
+      return null;
+    }
+    int end = host.length();
+    if (end > 0 && host.charAt(end - 1) == '.') {
+      end--;
+    }
+    if (end == 0 || end > MAX_NAME_LENGTH) {
+      return null;
+    }
+    int firstDot = -1;
+    int labelStart = 0;
+    boolean numericLabel = true;
+    for (int i = 0; i <= end; i++) {
+      char c = i == end ? '.' : host.charAt(i);
+      if (c == '.') {
+        int length = i - labelStart;
+        if (length == 0
+            || length > MAX_LABEL_LENGTH
+            || host.charAt(labelStart) == '-'
+            || host.charAt(i - 1) == '-') {
+          return null;
+        }
+        if (firstDot < 0 && i < end) {
+          firstDot = i;
+        }
+        if (i < end) {
+          labelStart = i + 1;
+          numericLabel = true;
+        }
+      } else if (c >= '0' && c <= '9') {
+        continue;
+      } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-') {
+        numericLabel = false;
+      } else {
+        return null;
+      }
+    }
+    // a numeric top-level label means an IP literal or garbage, not a name
+    if (firstDot < 0 || numericLabel) {
+      return null;
+    }
+    return host.substring(firstDot + 1, end);
+  }
+}
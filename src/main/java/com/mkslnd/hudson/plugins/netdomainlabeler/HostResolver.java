@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Name resolution used by {@link NodeLabelMgr}, replaceable so that tests and benchmarks run
+ * without a DNS server.
+ */
+interface HostResolver {
+  /** Resolution through the JVM resolver. */
+  HostResolver JDK =
+      new HostResolver() {
+        @Override
+        public InetAddress forward(final String host) throws UnknownHostException {
+          return InetAddress.getByName(host);
+        }
+
+        @Override
+        public InetAddress[] forwardAll(final String host) throws UnknownHostException {
+          return InetAddress.getAllByName(host);
+        }
+
+        @Override
+        public String reverse(final InetAddress address) {
+          return address.getHostName();
+        }
+      };
+
+  /**
+   * Resolves a host value to an address.
+   *
+   * @param host whatever you have for the host. ip, name, fqdn
+   * @return the address
+   * @throws UnknownHostException when the host cannot be resolved
+   */
+  InetAddress forward(String host) throws UnknownHostException;
+
+  /**
+   * Resolves a host value to all its addresses, IPv4 and IPv6.
+   *
+   * @param host whatever you have for the host. ip, name, fqdn
+   * @return the addresses, at least one
+   * @throws UnknownHostException when the host cannot be resolved
+   */
+  default InetAddress[] forwardAll(final String host) throws UnknownHostException {
+    return new InetAddress[] {forward(host)};
+  }
+
+  /**
+   * The host name of an address, from a reverse lookup unless the address was resolved from a
+   * name.
+   *
+   * @param address the address
+   * @return the host name, the textual address when it has none
+   */
+  String reverse(InetAddress address);
+}
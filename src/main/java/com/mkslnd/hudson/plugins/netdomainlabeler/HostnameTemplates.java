@@ -0,0 +1,369 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.model.labels.LabelAtom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Derives labels such as region, rack or site from host names, with templates like {@code
+ * ci-{region}-r{rack}-n{node}.* region-{region} rack-{region}-{rack}}.
+ *
+ * <p>Each line is a host name pattern followed by label templates. In the pattern, {@code {name}}
+ * captures one or more characters within a single dot separated label of the host name and
+ * {@code *} matches anything, dots included; other characters match themselves, ignoring case.
+ * Every line whose pattern matches the whole host name adds its labels, with the captures
+ * substituted in lower case and the rest of the label in the case it was written.
+ *
+ * <p>Templates are compiled once into arrays of literal, capture and wildcard segments matched
+ * without regular expressions, and the labels of each distinct host name are computed once.
+ */
+final class HostnameTemplates {
+  /** No template. */
+  static final HostnameTemplates EMPTY = new HostnameTemplates(new Template[0]);
+  /** Host names whose labels are kept, the cache being dropped when it grows past it. */
+  private static final int MAX_CACHED = 10000;
+  /** Kind of a literal segment. */
+  private static final int LITERAL = -1;
+  /** Kind of a {@code *} segment. */
+  private static final int WILDCARD = -2;
+  /** Characters that are operators in label expressions. */
+  private static final String OPERATORS = "&|!()<>=,\"'";
+
+  /** A compiled line. */
+  private static final class Template {
+    /** Literal text of the segments, null for captures and wildcards. */
+    private final String[] literals;
+    /** Capture index of the segments, {@link #LITERAL} or {@link #WILDCARD}. */
+    private final int[] captures;
+    /** Number of captures. */
+    private final int captureCount;
+    /** Literal the host name starts with, empty for none. */
+    private final String prefix;
+    /** Labels, each as alternating literal text and capture indexes. */
+    private final Object[][] labels;
+
+    Template(
+        final String[] literals,
+        final int[] captures,
+        final int captureCount,
+        final Object[][] labels) {
+      this.literals = literals;
+      this.captures = captures;
+      this.captureCount = captureCount;
+      this.prefix = literals.length > 0 && literals[0] != null ? literals[0] : "";
+      this.labels = labels;
+    }
+
+    /**
+     * Adds the labels of a host name if it matches.
+     *
+     * @param host lower case host name
+     * @param out the labels
+     */
+    void apply(final String host, final List<String> out) {
+      if (!host.startsWith(prefix)) {
+        return;
+      }
+      int[] bounds = new int[2 * captureCount];
+      if (!match(host, 0, 0, bounds)) {
+        return;
+      }
+      for (Object[] label : labels) {
+        StringBuilder text = new StringBuilder();
+        for (Object part : label) {
+          if (part instanceof String) {
+            text.append((String) part);
+          } else {
+            int capture = (Integer) part;
+            text.append(host, bounds[2 * capture], bounds[2 * capture + 1]);
+          }
+        }
+        out.add(text.toString());
+      }
+    }
+
+    /**
+     * Matches the segments from one on against the host name from a position on.
+     *
+     * @param host lower case host name
+     * @param position position in the host name
+     * @param segment first segment to match
+     * @param bounds start and end of each capture, filled on success
+     * @return true if the rest of the host name matches
+     */
+    private boolean match(
+        final String host, final int position, final int segment, final int[] bounds) {
+      if (segment == literals.length) {
+        return position == host.length();
+      }
+      String literal = literals[segment];
+      if (literal != null) {
+        return host.startsWith(literal, position)
+            && match(host, position + literal.length(), segment + 1, bounds);
+      }
+      int capture = captures[segment];
+      if (capture == WILDCARD) {
+        for (int end = position; end <= host.length(); end++) {
+          if (match(host, end, segment + 1, bounds)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      // captures stay within a label, which bounds the backtracking
+      for (int end = position + 1; end <= host.length() && host.charAt(end - 1) != '.'; end++) {
+        if (match(host, end, segment + 1, bounds)) {
+          bounds[2 * capture] = position;
+          bounds[2 * capture + 1] = end;
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** The compiled lines. */
+  private final Template[] templates;
+  /** Labels of the host names seen so far. */
+  private final ConcurrentMap<String, Set<LabelAtom>> cache = new ConcurrentHashMap<>();
+
+  private HostnameTemplates(final Template[] templates) {
+    this.templates = templates;
+  }
+
+  /**
+   * Parses templates, one per line as {@code <host name pattern> <label template>...}. Blank
+   * lines and lines starting with {@code #} are ignored.
+   *
+   * @param text the templates
+   * @return the compiled templates
+   * @throws IllegalArgumentException when a line is not valid
+   */
+  static HostnameTemplates parse(final String text) {
+    if (text == null || text.trim().isEmpty()) {
+      return EMPTY;
+    }
+    List<Template> templates = new ArrayList<>();
+    String[] lines = text.split("\\r?\\n");
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i].trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      try {
+        String[] fields = line.split("\\s+");
+        fields[0] = fields[0].toLowerCase(Locale.ENGLISH);
+        templates.add(compile(fields));
+      } catch (IllegalArgumentException ex) {
+        throw new IllegalArgumentException("Line " + (i + 1) + ": " + ex.getMessage(), ex);
+      }
+    }
+    return templates.isEmpty() ? EMPTY : new HostnameTemplates(templates.toArray(new Template[0]));
+  }
+
+  /**
+   * Compiles a line.
+   *
+   * @param fields the lower case pattern followed by the label templates
+   * @return the template
+   */
+  private static Template compile(final String[] fields) {
+    if (fields.length < 2) {
+      throw new IllegalArgumentException("expected <host name pattern> <label template>...");
+    }
+    List<String> names = new ArrayList<>();
+    List<String> literals = new ArrayList<>();
+    List<Integer> kinds = new ArrayList<>();
+    for (Object part : split(fields[0])) {
+      if (part instanceof Capture) {
+        String name = ((Capture) part).name;
+        if (names.contains(name)) {
+          throw new IllegalArgumentException("{" + name + "} captured twice in " + fields[0]);
+        }
+        names.add(name);
+        literals.add(null);
+        kinds.add(names.size() - 1);
+        continue;
+      }
+      String text = (String) part;
+      int start = 0;
+      for (int star = text.indexOf('*'); ; star = text.indexOf('*', start)) {
+        int end = star < 0 ? text.length() : star;
+        if (end > start) {
+          literals.add(text.substring(start, end));
+          kinds.add(LITERAL);
+        }
+        if (star < 0) {
+          break;
+        }
+        literals.add(null);
+        kinds.add(WILDCARD);
+        start = star + 1;
+      }
+    }
+    for (int s = 1; s < literals.size(); s++) {
+      if (literals.get(s) == null && literals.get(s - 1) == null) {
+        throw new IllegalArgumentException(
+            "captures and * must be separated by text in " + fields[0]);
+      }
+    }
+    Object[][] labels = new Object[fields.length - 1][];
+    for (int f = 1; f < fields.length; f++) {
+      List<Object> label = new ArrayList<>();
+      for (Object part : split(fields[f])) {
+        if (part instanceof String) {
+          String text = (String) part;
+          for (char c : text.toCharArray()) {
+            if (OPERATORS.indexOf(c) >= 0 || c == '*') {
+              throw new IllegalArgumentException(
+                  "label " + fields[f] + " contains the operator " + c);
+            }
+          }
+          label.add(text);
+        } else {
+          String name = ((Capture) part).name.toLowerCase(Locale.ENGLISH);
+          int index = names.indexOf(name);
+          if (index < 0) {
+            throw new IllegalArgumentException(
+                "label " + fields[f] + " uses {" + name + "}, not captured");
+          }
+          label.add(index);
+        }
+      }
+      labels[f - 1] = label.toArray();
+    }
+    int[] captures = new int[kinds.size()];
+    for (int s = 0; s < captures.length; s++) {
+      captures[s] = kinds.get(s);
+    }
+    return new Template(literals.toArray(new String[0]), captures, names.size(), labels);
+  }
+
+  /** A {@code {name}} reference in a pattern or label template. */
+  private static final class Capture {
+    /** Name of the capture. */
+    private final String name;
+
+    Capture(final String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Splits a pattern or label template into literal text and captures.
+   *
+   * @param text the pattern or label template
+   * @return strings for the literal text and {@link Capture captures}
+   */
+  private static List<Object> split(final String text) {
+    List<Object> parts = new ArrayList<>();
+    int position = 0;
+    while (position < text.length()) {
+      int open = text.indexOf('{', position);
+      int close = text.indexOf('}', position);
+      if (open < 0) {
+        if (close >= 0) {
+          throw new IllegalArgumentException("unmatched } in " + text);
+        }
+        parts.add(text.substring(position));
+        break;
+      }
+      if (close < open) {
+        throw new IllegalArgumentException("unmatched " + (close < 0 ? "{" : "}") + " in " + text);
+      }
+      if (open > position) {
+        parts.add(text.substring(position, open));
+      }
+      String name = text.substring(open + 1, close);
+      if (name.isEmpty() || !name.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '_')) {
+        throw new IllegalArgumentException("bad capture name {" + name + "} in " + text);
+      }
+      parts.add(new Capture(name));
+      position = close + 1;
+    }
+    return parts;
+  }
+
+  /**
+   * Whether there is no template.
+   *
+   * @return true without templates
+   */
+  boolean isEmpty() {
+    return templates.length == 0;
+  }
+
+  /**
+   * The labels of a host name, computed by every template.
+   *
+   * @param hostname the host name, in any case, with or without a trailing dot
+   * @return the labels in template order, possibly with duplicates
+   */
+  List<String> apply(final String hostname) {
+    String host = hostname.toLowerCase(Locale.ENGLISH);
+    if (host.endsWith(".")) {
+      host = host.substring(0, host.length() - 1);
+    }
+    List<String> labels = new ArrayList<>();
+    for (Template template : templates) {
+      template.apply(host, labels);
+    }
+    return labels;
+  }
+
+  /**
+   * The labels of a host name, computed once per distinct host name.
+   *
+   * @param hostname the host name
+   * @param atoms gives the label of a name
+   * @return immutable set shared by every caller asking for the same host name, made again when
+   *     Jenkins dropped one of its labels
+   */
+  Set<LabelAtom> labelsOf(final String hostname, final Function<String, LabelAtom> atoms) {
+    if (templates.length == 0 || hostname == null) {
+      return Collections.emptySet();
+    }
+    Set<LabelAtom> labels = cache.get(hostname);
+    if (labels == null || !InternedLabelSet.isCurrent(labels, atoms)) {
+      List<LabelAtom> computed = new ArrayList<>();
+      for (String label : apply(hostname)) {
+        computed.add(atoms.apply(label));
+      }
+      labels = computed.isEmpty() ? Collections.emptySet() : new InternedLabelSet(computed);
+      if (cache.size() >= MAX_CACHED) {
+        cache.clear();
+      }
+      cache.put(hostname, labels);
+    }
+    return labels;
+  }
+}
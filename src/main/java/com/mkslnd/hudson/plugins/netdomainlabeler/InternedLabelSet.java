@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.model.labels.LabelAtom;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The canonical, immutable labels of a domain, one instance shared by every node of that domain.
+ * Stores keep instances of this class as they are instead of copying them.
+ *
+ * <p>Jenkins drops the labels no node or cloud carries in {@code Jenkins.trimLabels()}, and hands
+ * out new instances when their names are used again. Caches of these sets check {@link
+ * #isCurrent} before serving one.
+ */
+final class InternedLabelSet extends AbstractSet<LabelAtom> {
+  /** The labels, without duplicates. */
+  private final LabelAtom[] atoms;
+  /** Hash code computed once. */
+  private final int hash;
+
+  /**
+   * Creates the set.
+   *
+   * @param labels the labels
+   */
+  InternedLabelSet(final Collection<LabelAtom> labels) {
+    this.atoms = new LinkedHashSet<>(labels).toArray(new LabelAtom[0]);
+    int h = 0;
+    for (LabelAtom atom : atoms) {
+      h += atom.hashCode();
+    }
+    this.hash = h;
+  }
+
+  @Override
+  public Iterator<LabelAtom> iterator() {
+    return new Iterator<LabelAtom>() {
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return next < atoms.length;
+      }
+
+      @Override
+      public LabelAtom next() {
+        if (next >= atoms.length) {
+          throw new NoSuchElementException();
+        }
+        return atoms[next++];
+      }
+    };
+  }
+
+  @Override
+  public boolean contains(final Object o) {
+    for (LabelAtom atom : atoms) {
+      if (atom.equals(o)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int size() {
+    return atoms.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * Whether every label of the set is still the instance Jenkins hands out for its name.
+   *
+   * @param labels the labels
+   * @param atoms gives the label of a name
+   * @return false if a label was dropped by Jenkins since the set was made
+   */
+  static boolean isCurrent(final Set<LabelAtom> labels, final Function<String, LabelAtom> atoms) {
+    for (LabelAtom atom : labels) {
+      if (atoms.apply(atom.getName()) != atom) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
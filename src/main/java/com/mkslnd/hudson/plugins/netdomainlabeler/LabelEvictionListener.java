@@ -0,0 +1,46 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.Extension;
+import hudson.model.Node;
+import jenkins.model.NodeListener;
+
+/** Forgets everything about deleted nodes, which matters with short-lived cloud agents. */
+@Extension
+public class LabelEvictionListener extends NodeListener {
+
+  @Override
+  protected void onDeleted(final Node node) {
+    NodeLabelMgr.evict(node.getNodeName());
+    PersistentLabelCache.remove(node.getNodeName());
+  }
+
+  @Override
+  protected void onUpdated(final Node oldOne, final Node newOne) {
+    if (!oldOne.getNodeName().equals(newOne.getNodeName())) {
+      onDeleted(oldOne);
+    }
+  }
+}
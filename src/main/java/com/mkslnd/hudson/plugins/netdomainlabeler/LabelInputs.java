@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The inputs the labels of each node were last computed from: its host value and a fingerprint
+ * of the settings, so that a configuration change recomputes only the nodes whose inputs changed.
+ */
+final class LabelInputs {
+  /** What the labels of a node were computed from. */
+  private static final class Inputs {
+    /** Host value of the node, null if unknown. */
+    private final String hostValue;
+    /** Fingerprint of the settings. */
+    private final String settings;
+
+    Inputs(final String hostValue, final String settings) {
+      this.hostValue = hostValue;
+      this.settings = settings;
+    }
+  }
+
+  /** Inputs by node name. */
+  private final ConcurrentMap<String, Inputs> inputs = new ConcurrentHashMap<>();
+  /** Checks that found the inputs unchanged. */
+  private final AtomicLong unchanged = new AtomicLong();
+
+  /**
+   * Records the inputs the labels of a node were just computed from.
+   *
+   * @param nodeName name of the node
+   * @param hostValue host value of the node, may be null
+   * @param settings fingerprint of the settings
+   */
+  void record(final String nodeName, final String hostValue, final String settings) {
+    inputs.put(nodeName, new Inputs(hostValue, settings));
+  }
+
+  /**
+   * Whether the labels of a node were computed from other settings, or not at all.
+   *
+   * @param nodeName name of the node
+   * @param settings current fingerprint of the settings
+   * @return true if the labels must be computed again whatever the host value
+   */
+  boolean settingsChanged(final String nodeName, final String settings) {
+    Inputs recorded = inputs.get(nodeName);
+    return recorded == null || !recorded.settings.equals(settings);
+  }
+
+  /**
+   * Whether the labels of a node were computed from other inputs, or not at all.
+   *
+   * @param nodeName name of the node
+   * @param hostValue current host value of the node, null to compare the settings only
+   * @param settings current fingerprint of the settings
+   * @return true if the labels must be computed again
+   */
+  boolean changed(final String nodeName, final String hostValue, final String settings) {
+    Inputs recorded = inputs.get(nodeName);
+    if (recorded == null
+        || !recorded.settings.equals(settings)
+        || (hostValue != null && !Objects.equals(recorded.hostValue, hostValue))) {
+      return true;
+    }
+    unchanged.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Forgets the inputs of a node.
+   *
+   * @param nodeName name of the node
+   */
+  void remove(final String nodeName) {
+    inputs.remove(nodeName);
+  }
+
+  /**
+   * Number of nodes whose inputs are known.
+   *
+   * @return nodes
+   */
+  int size() {
+    return inputs.size();
+  }
+
+  /**
+   * Number of checks that found the inputs of a node unchanged, sparing its recomputation.
+   *
+   * @return checks
+   */
+  long getUnchanged() {
+    return unchanged.get();
+  }
+}
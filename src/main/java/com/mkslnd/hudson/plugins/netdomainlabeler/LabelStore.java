@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Labels computed for nodes, keyed by node name so that entries survive Jenkins replacing the
+ * {@link Node} instance on reconfiguration.
+ *
+ * <p>Values are immutable snapshots replaced as a whole, so readers never lock, write nothing and
+ * never see a partially updated set. Entries stay until removed, or until the store grows past its
+ * bound: the oldest entries of nodes that may be evicted, those offline or deleted, are then
+ * evicted. Labels of the other nodes are never dropped, the store growing past its bound if they
+ * are all of them.
+ */
+final class LabelStore {
+  /** Rough size of the map node, entry and key of a stored node, in bytes. */
+  private static final long ENTRY_BYTES = 32 + 24 + 40;
+  /** Rough size of a stored label set without its elements, in bytes. */
+  private static final long SET_BYTES = 48;
+
+  /** A label set and when it was stored. */
+  private static final class Entry {
+    /** Immutable labels. */
+    final Set<LabelAtom> labels;
+    /** Order in which the entry was stored. */
+    final long stored;
+
+    Entry(final Set<LabelAtom> labels, final long stored) {
+      this.labels = labels;
+      this.stored = stored;
+    }
+  }
+
+  /** Label sets by node name. */
+  private final ConcurrentMap<String, Entry> labels = new ConcurrentHashMap<>();
+  /** Maximum number of entries. */
+  private final int maxSize;
+  /** Whether the labels of a node, by name, may be evicted. */
+  private final Predicate<String> evictable;
+  /** Entries evicted to stay within the bound. */
+  private final AtomicLong evictions = new AtomicLong();
+  /** Orders the entries by when they were stored. */
+  private final AtomicLong sequence = new AtomicLong();
+  /** Size past which the next eviction scan runs, raised when a scan cannot evict enough. */
+  private volatile int scanAt;
+
+  /** Creates an unbounded store. */
+  LabelStore() {
+    this(Integer.MAX_VALUE, nodeName -> true);
+  }
+
+  /**
+   * Creates a store.
+   *
+   * @param maxSize maximum number of entries before the oldest evictable ones are evicted
+   * @param evictable whether the labels of a node, by name, may be evicted
+   */
+  LabelStore(final int maxSize, final Predicate<String> evictable) {
+    this.maxSize = Math.max(1, maxSize);
+    this.evictable = evictable;
+    this.scanAt = this.maxSize;
+  }
+
+  /**
+   * Labels of the node.
+   *
+   * @param node the node
+   * @return immutable labels or null if none stored
+   */
+  Collection<LabelAtom> get(final Node node) {
+    return get(node.getNodeName());
+  }
+
+  /**
+   * Labels of the node.
+   *
+   * @param nodeName name of the node
+   * @return immutable labels or null if none stored
+   */
+  Collection<LabelAtom> get(final String nodeName) {
+    Entry entry = labels.get(nodeName);
+    return entry == null ? null : entry.labels;
+  }
+
+  /**
+   * Stores a snapshot of the labels of the node.
+   *
+   * @param node the node
+   * @param nodeLabels labels, copied
+   */
+  void put(final Node node, final Collection<LabelAtom> nodeLabels) {
+    put(node.getNodeName(), nodeLabels);
+  }
+
+  /**
+   * Stores a snapshot of the labels of the node.
+   *
+   * @param nodeName name of the node
+   * @param nodeLabels labels, copied
+   */
+  void put(final String nodeName, final Collection<LabelAtom> nodeLabels) {
+    labels.put(nodeName, new Entry(snapshot(nodeLabels), sequence.incrementAndGet()));
+    if (labels.size() > scanAt) {
+      evict();
+    }
+  }
+
+  /**
+   * Evicts the oldest entries of evictable nodes, a sixteenth of the bound at once so that puts
+   * past the bound do not each scan the store. When too few nodes are evictable the next scan
+   * waits for the store to grow by another sixteenth.
+   */
+  private synchronized void evict() {
+    int excess = labels.size() - maxSize;
+    if (excess <= 0) {
+      scanAt = maxSize;
+      return;
+    }
+    long[] stored = new long[labels.size()];
+    int size = 0;
+    for (Map.Entry<String, Entry> entry : labels.entrySet()) {
+      if (size == stored.length) {
+        break;
+      }
+      if (evictable.test(entry.getKey())) {
+        stored[size++] = entry.getValue().stored;
+      }
+    }
+    Arrays.sort(stored, 0, size);
+    int count = Math.min(size, excess + maxSize / 16);
+    if (count > 0) {
+      // entries stored since the scan are newer than the cutoff and stay
+      long cutoff = stored[count - 1];
+      for (Map.Entry<String, Entry> entry : labels.entrySet()) {
+        if (count == 0) {
+          break;
+        }
+        if (entry.getValue().stored <= cutoff
+            && evictable.test(entry.getKey())
+            && labels.remove(entry.getKey(), entry.getValue())) {
+          evictions.incrementAndGet();
+          count--;
+        }
+      }
+    }
+    scanAt = Math.max(maxSize, labels.size() + maxSize / 16);
+  }
+
+  /**
+   * Removes the labels of the node.
+   *
+   * @param node the node
+   */
+  void remove(final Node node) {
+    remove(node.getNodeName());
+  }
+
+  /**
+   * Removes the labels of the node.
+   *
+   * @param nodeName name of the node
+   */
+  void remove(final String nodeName) {
+    labels.remove(nodeName);
+  }
+
+  /**
+   * Removes the labels of the node and returns them.
+   *
+   * @param nodeName name of the node
+   * @return the removed labels or null if none were stored
+   */
+  Collection<LabelAtom> evict(final String nodeName) {
+    Entry entry = labels.remove(nodeName);
+    return entry == null ? null : entry.labels;
+  }
+
+  /**
+   * Whether labels are stored for the node.
+   *
+   * @param node the node
+   * @return true if labels are stored
+   */
+  boolean containsKey(final Node node) {
+    return labels.containsKey(node.getNodeName());
+  }
+
+  /**
+   * Removes the labels of every node not in the given names.
+   *
+   * @param nodeNames names of the nodes to keep
+   */
+  void retainAll(final Set<String> nodeNames) {
+    labels.keySet().retainAll(nodeNames);
+  }
+
+  /**
+   * Number of nodes with stored labels.
+   *
+   * @return entries
+   */
+  int size() {
+    return labels.size();
+  }
+
+  /**
+   * Number of nodes whose stored labels are empty.
+   *
+   * @return entries without labels
+   */
+  int countEmpty() {
+    int empty = 0;
+    for (Entry entry : labels.values()) {
+      if (entry.labels.isEmpty()) {
+        empty++;
+      }
+    }
+    return empty;
+  }
+
+  /**
+   * Number of entries evicted to stay within the bound.
+   *
+   * @return evictions
+   */
+  long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Rough estimate of the memory held by the store. Label sets shared by several nodes are counted
+   * once and the label atoms themselves, owned by Jenkins, not at all.
+   *
+   * @return estimated bytes
+   */
+  long estimateMemory() {
+    long bytes = 0;
+    Map<Set<LabelAtom>, Boolean> sets = new IdentityHashMap<>();
+    for (Map.Entry<String, Entry> entry : labels.entrySet()) {
+      bytes += ENTRY_BYTES + 2L * entry.getKey().length();
+      Set<LabelAtom> nodeLabels = entry.getValue().labels;
+      if (!nodeLabels.isEmpty() && sets.put(nodeLabels, Boolean.TRUE) == null) {
+        bytes += SET_BYTES + 8L * nodeLabels.size();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Immutable copy of the labels, interned labels being immutable already are kept as they are.
+   *
+   * @param nodeLabels labels
+   * @return immutable copy
+   */
+  static Set<LabelAtom> snapshot(final Collection<LabelAtom> nodeLabels) {
+    if (nodeLabels instanceof InternedLabelSet) {
+      return (InternedLabelSet) nodeLabels;
+    }
+    if (nodeLabels.isEmpty()) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(new HashSet<>(nodeLabels));
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.ExtensionList;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.labels.LabelAtom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Resolves the labels of every online computer right after Jenkins starts, instead of waiting for
+ * each {@link NodeLabelMgr#onOnline} event.
+ *
+ * <p>Few agents are connected when Jenkins is up; most reconnect in the following minutes. During
+ * the warm-up period the agents coming online are gathered and resolved in batches, the way the
+ * agents online at startup are. Until they are resolved they carry the domain saved by {@link
+ * PersistentLabelCache}.
+ */
+public final class LabelWarmup {
+  /** Logging of issues. */
+  private static final transient Logger LOGGER = Logger.getLogger(LabelWarmup.class.getName());
+  /** Seconds after startup during which agents coming online are resolved in batches. */
+  private static final long PERIOD =
+      SystemProperties.getLong(LabelWarmup.class.getName() + ".period", 600L);
+  /** Milliseconds agents coming online are gathered before being resolved together. */
+  private static final long BATCH_DELAY =
+      SystemProperties.getLong(LabelWarmup.class.getName() + ".batchDelay", 2000L);
+  /** Computers that came online and wait for the next batch. */
+  private static final Set<Computer> PENDING = ConcurrentHashMap.newKeySet();
+  /** Whether a batch is already scheduled. */
+  private static final AtomicBoolean BATCH_SCHEDULED = new AtomicBoolean();
+  /** Whether the warm-up period started. */
+  private static volatile boolean started;
+  /** When the warm-up period ends, in {@link System#nanoTime()} units. */
+  private static volatile long periodEnd;
+
+  private LabelWarmup() {}
+
+  /** Starts the warm-up in the background once Jenkins is up. */
+  @Initializer(after = InitMilestone.COMPLETED)
+  public static void schedule() {
+    startPeriod(PERIOD);
+    Timer.get().submit(LabelWarmup::run);
+  }
+
+  /**
+   * Starts a warm-up period.
+   *
+   * @param seconds length of the period, 0 ends the current one
+   */
+  static void startPeriod(final long seconds) {
+    periodEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    started = true;
+  }
+
+  /**
+   * Takes a computer that came online into the next batch if the warm-up period is not over.
+   *
+   * @param computer the computer
+   * @return false if the period is over and the caller must resolve the computer itself
+   */
+  static boolean offer(final Computer computer) {
+    if (!started || System.nanoTime() - periodEnd >= 0) {
+      return false;
+    }
+    PENDING.add(computer);
+    if (BATCH_SCHEDULED.compareAndSet(false, true)) {
+      Timer.get().schedule(LabelWarmup::runPending, BATCH_DELAY, TimeUnit.MILLISECONDS);
+    }
+    return true;
+  }
+
+  /** Resolves all online computers in parallel and refreshes the labels that changed once. */
+  static void run() {
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) {
+      return;
+    }
+    List<Computer> computers = new ArrayList<>();
+    for (Computer computer : jenkins.getComputers()) {
+      if (computer.isOnline()) {
+        computers.add(computer);
+      }
+    }
+    warmUp(computers);
+  }
+
+  /** Resolves the computers that came online since the last batch. */
+  static void runPending() {
+    BATCH_SCHEDULED.set(false);
+    List<Computer> computers = new ArrayList<>();
+    for (Iterator<Computer> it = PENDING.iterator(); it.hasNext(); ) {
+      Computer computer = it.next();
+      it.remove();
+      if (computer.isOnline()) {
+        computers.add(computer);
+      }
+    }
+    warmUp(computers);
+  }
+
+  /**
+   * Resolves the computers in parallel and refreshes the labels that changed once.
+   *
+   * @param computers online computers
+   */
+  private static void warmUp(final List<Computer> computers) {
+    if (computers.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      Map<String, Collection<LabelAtom>> resolved =
+          ExtensionList.lookupSingleton(NodeLabelMgr.class).resolveAll(computers);
+      // computers that went offline meanwhile were evicted, do not bring their labels back
+      Set<String> online = new HashSet<>();
+      for (Computer computer : computers) {
+        if (computer.isOnline()) {
+          online.add(computer.getName());
+        }
+      }
+      resolved.keySet().retainAll(online);
+      Set<LabelAtom> affected = new HashSet<>();
+      NodeLabelMgr.publish(resolved, affected);
+      NodeLabelMgr.refreshLabels(affected);
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      LOGGER.log(
+          Level.INFO,
+          "Resolved labels of {0} computers in {1} ms",
+          new Object[] {resolved.size(), elapsed});
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import java.util.HashMap;
+import java.util.Map;
+import jenkins.metrics.api.MetricProvider;
+
+/** Publishes the metrics of the plugin to the Metrics plugin when it is installed. */
+@Extension(optional = true)
+public class LabelerMetricProvider extends MetricProvider {
+  /** Prefix of the metric names. */
+  private static final String PREFIX = "netdomain-labeler.";
+
+  @NonNull
+  @Override
+  public MetricSet getMetricSet() {
+    Map<String, Metric> metrics = new HashMap<>();
+    metrics.put(PREFIX + "labels.hits", (Gauge<Long>) LabelerMetrics.LABEL_HITS::sum);
+    metrics.put(PREFIX + "labels.misses", (Gauge<Long>) LabelerMetrics.LABEL_MISSES::sum);
+    metrics.put(PREFIX + "labels.empty", (Gauge<Integer>) NodeLabelMgr.nodeLabels::countEmpty);
+    metrics.put(PREFIX + "labels.nodes", (Gauge<Integer>) NodeLabelMgr.nodeLabels::size);
+    metrics.put(
+        PREFIX + "labels.estimated-bytes", (Gauge<Long>) NodeLabelMgr.nodeLabels::estimateMemory);
+    metrics.put(PREFIX + "domains.failures", (Gauge<Long>) LabelerMetrics.FAILURES::sum);
+    metrics.put(PREFIX + "domains.timeouts", (Gauge<Long>) LabelerMetrics.TIMEOUTS::sum);
+    metrics.put(PREFIX + "domains.fallbacks", (Gauge<Long>) LabelerMetrics.FALLBACKS::sum);
+    metrics.put(PREFIX + "resolutions.backlog", (Gauge<Integer>) NodeLabelMgr.PIPELINE::getBacklog);
+    metrics.put(PREFIX + "latency.hostname.p99", p99(LabelerMetrics.HOSTNAME));
+    metrics.put(PREFIX + "latency.forward-dns.p99", p99(LabelerMetrics.FORWARD_DNS));
+    metrics.put(PREFIX + "latency.reverse-dns.p99", p99(LabelerMetrics.REVERSE_DNS));
+    return () -> metrics;
+  }
+
+  /**
+   * Gauge of the 99th percentile of a histogram.
+   *
+   * @param histogram the histogram
+   * @return the gauge, in microseconds
+   */
+  private static Gauge<Long> p99(final LatencyHistogram histogram) {
+    return () -> histogram.percentile(99);
+  }
+}
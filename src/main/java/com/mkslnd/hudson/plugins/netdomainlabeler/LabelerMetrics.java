@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONObject;
+
+/** Counters and latencies of the plugin, see {@link NetDomainLabelerAction}. */
+final class LabelerMetrics {
+  /** Latency of asking a computer for its host name. */
+  static final LatencyHistogram HOSTNAME = new LatencyHistogram();
+  /** Latency of forward DNS lookups. */
+  static final LatencyHistogram FORWARD_DNS = new LatencyHistogram();
+  /** Latency of reverse DNS lookups. */
+  static final LatencyHistogram REVERSE_DNS = new LatencyHistogram();
+  /** Labels served from the store. */
+  static final LongAdder LABEL_HITS = new LongAdder();
+  /** Labels asked for nodes not in the store. */
+  static final LongAdder LABEL_MISSES = new LongAdder();
+  /** Domains read from fully qualified host values without DNS. */
+  static final LongAdder PARSED = new LongAdder();
+  /** Labels and label expressions reset because a node gained or lost one of them. */
+  static final LongAdder LABEL_RESETS = new LongAdder();
+  /** Failed domain resolutions. */
+  static final LongAdder FAILURES = new LongAdder();
+  /** Domain resolutions abandoned at their deadline. */
+  static final LongAdder TIMEOUTS = new LongAdder();
+  /** Nodes labeled with their last known domain because resolution failed. */
+  static final LongAdder FALLBACKS = new LongAdder();
+
+  private LabelerMetrics() {}
+
+  /**
+   * All the metrics as JSON.
+   *
+   * @return the metrics
+   */
+  static JSONObject toJson() {
+    JSONObject latencies = new JSONObject();
+    latencies.put("hostname", HOSTNAME.toJson());
+    latencies.put("forwardDns", FORWARD_DNS.toJson());
+    latencies.put("reverseDns", REVERSE_DNS.toJson());
+    JSONObject labels = new JSONObject();
+    labels.put("hits", LABEL_HITS.sum());
+    labels.put("misses", LABEL_MISSES.sum());
+    labels.put("nodes", NodeLabelMgr.nodeLabels.size());
+    labels.put("nodesWithoutLabels", NodeLabelMgr.nodeLabels.countEmpty());
+    labels.put("resets", LABEL_RESETS.sum());
+    labels.put("evictions", NodeLabelMgr.nodeLabels.getEvictions());
+    labels.put("estimatedBytes", NodeLabelMgr.nodeLabels.estimateMemory());
+    JSONObject domains = new JSONObject();
+    domains.put("hits", NodeLabelMgr.DOMAINS.getHits());
+    domains.put("misses", NodeLabelMgr.DOMAINS.getMisses());
+    domains.put("size", NodeLabelMgr.DOMAINS.size());
+    domains.put("parsed", PARSED.sum());
+    domains.put("failures", FAILURES.sum());
+    domains.put("timeouts", TIMEOUTS.sum());
+    domains.put("fallbacks", FALLBACKS.sum());
+    domains.put("circuitBreaker", NodeLabelMgr.BREAKER.getState().name());
+    domains.put("circuitBreakerRejected", NodeLabelMgr.BREAKER.getRejected());
+    JSONObject resolutions = new JSONObject();
+    resolutions.put("executor", NodeLabelMgr.PIPELINE.getMode().name());
+    resolutions.put("backlog", NodeLabelMgr.PIPELINE.getBacklog());
+    resolutions.put("inFlight", NodeLabelMgr.PIPELINE.getInFlight());
+    resolutions.put("computations", NodeLabelMgr.getLabelComputations());
+    resolutions.put("shared", NodeLabelMgr.getSharedLabelComputations());
+    resolutions.put("mergedRefreshes", NodeLabelMgr.getMergedRefreshes());
+    resolutions.put("unchangedInputs", NodeLabelMgr.INPUTS.getUnchanged());
+    JSONObject json = new JSONObject();
+    json.put("latencies", latencies);
+    json.put("labels", labels);
+    json.put("domains", domains);
+    json.put("resolutions", resolutions);
+    return json;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Lock free latency histogram with power of two microsecond buckets, bucket {@code i} counting
+ * latencies below {@code 2^i} microseconds.
+ */
+final class LatencyHistogram {
+  /** Number of buckets, the last one counts everything from about 35 minutes. */
+  private static final int BUCKETS = 32;
+  /** Counts per bucket. */
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  /** Number of recorded latencies. */
+  private final LongAdder count = new LongAdder();
+  /** Sum of recorded latencies in microseconds. */
+  private final LongAdder sum = new LongAdder();
+
+  /**
+   * Records a latency.
+   *
+   * @param startNanos {@link System#nanoTime()} when the operation started
+   */
+  void recordSince(final long startNanos) {
+    record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param micros the latency in microseconds
+   */
+  void record(final long micros) {
+    int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0L, micros));
+    buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    count.increment();
+    sum.add(micros);
+  }
+
+  /**
+   * Number of recorded latencies.
+   *
+   * @return count
+   */
+  long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Upper bound of the bucket holding the given percentile.
+   *
+   * @param percentile between 0 and 100
+   * @return latency in microseconds, 0 when nothing was recorded
+   */
+  long percentile(final double percentile) {
+    long total = 0;
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return 1L << i;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * The histogram as JSON.
+   *
+   * @return count, mean, percentiles and bucket counts
+   */
+  JSONObject toJson() {
+    long n = count.sum();
+    JSONArray counts = new JSONArray();
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.add(buckets.get(i));
+    }
+    JSONObject json = new JSONObject();
+    json.put("count", n);
+    json.put("meanMicros", n == 0 ? 0 : sum.sum() / n);
+    json.put("p50Micros", percentile(50));
+    json.put("p90Micros", percentile(90));
+    json.put("p99Micros", percentile(99));
+    json.put("buckets", counts);
+    return json;
+  }
+}
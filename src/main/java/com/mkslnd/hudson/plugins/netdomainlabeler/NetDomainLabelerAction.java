@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+
+/** Root action of the plugin, serves its metrics as JSON at {@code /netdomain-labeler/metrics}. */
+@Extension
+public class NetDomainLabelerAction implements RootAction {
+
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Network Domain Labeler";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "netdomain-labeler";
+  }
+
+  /**
+   * Serves the metrics.
+   *
+   * @return the metrics as JSON
+   */
+  public HttpResponse doMetrics() {
+    Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+    return (req, rsp, node) -> {
+      rsp.setContentType("application/json;charset=UTF-8");
+      rsp.getWriter().print(LabelerMetrics.toJson().toString());
+    };
+  }
+}
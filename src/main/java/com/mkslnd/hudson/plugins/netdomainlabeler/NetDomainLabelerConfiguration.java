@@ -0,0 +1,398 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.Extension;
+import hudson.util.FormValidation;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Global settings of the plugin, in the Configure System page.
+ *
+ * <p>Setters only assign a setting and drop what was derived from it. Submitting the page saves
+ * the settings and relabels the agents once; code calling the setters calls {@link #save()} and
+ * {@link NodeLabelMgr#relabelChanged()} itself.
+ */
+@Extension
+public class NetDomainLabelerConfiguration extends GlobalConfiguration {
+  /** Default deadline of domain lookups, in milliseconds. */
+  static final int DEFAULT_LOOKUP_TIMEOUT = 2000;
+  /** Logging of issues. */
+  private static final transient Logger LOGGER =
+      Logger.getLogger(NetDomainLabelerConfiguration.class.getName());
+  /** Whether agents report their own domain instead of the controller resolving it. */
+  private boolean agentSideResolution;
+  /** IP ranges in CIDR notation and their domain, one per line. */
+  private String cidrDomains;
+  /** The compiled ranges. */
+  private transient volatile CidrDomainTable cidrDomainTable = CidrDomainTable.EMPTY;
+  /** Number of ancestor domains labeled after the domain of the node. */
+  private int ancestorDepth;
+  /** Domains seen so far and their ancestors. */
+  private transient volatile DomainSuffixTrie domainTrie = new DomainSuffixTrie(0);
+  /** Deadline of domain lookups in milliseconds, 0 for none. */
+  private int lookupTimeout = DEFAULT_LOOKUP_TIMEOUT;
+  /** When host values are resolved through DNS instead of parsed. */
+  private ReverseLookupPolicy reverseLookupPolicy = ReverseLookupPolicy.UNQUALIFIED;
+  /** Which addresses of a host name its domain: ipv4, ipv6 or a range in CIDR notation. */
+  private String preferredAddresses;
+  /** The parsed preference. */
+  private transient volatile AddressPreference addressPreference = AddressPreference.IPV4;
+  /** Templates deriving labels from host names, one per line. */
+  private String hostnameTemplates;
+  /** The compiled templates. */
+  private transient volatile HostnameTemplates compiledTemplates = HostnameTemplates.EMPTY;
+  /** Fingerprint of the settings labels are computed from, null until computed. */
+  private transient volatile String labelInputsFingerprint;
+
+  public NetDomainLabelerConfiguration() {
+    load();
+    domainTrie = new DomainSuffixTrie(ancestorDepth);
+    try {
+      cidrDomainTable = CidrDomainTable.parse(cidrDomains);
+    } catch (IllegalArgumentException ex) {
+      LOGGER.log(Level.WARNING, "Ignoring invalid CIDR domains: {0}", ex.getMessage());
+    }
+    try {
+      addressPreference = AddressPreference.parse(preferredAddresses);
+    } catch (IllegalArgumentException ex) {
+      LOGGER.log(Level.WARNING, "Ignoring invalid preferred addresses: {0}", ex.getMessage());
+    }
+    try {
+      compiledTemplates = HostnameTemplates.parse(hostnameTemplates);
+    } catch (IllegalArgumentException ex) {
+      LOGGER.log(Level.WARNING, "Ignoring invalid hostname templates: {0}", ex.getMessage());
+    }
+  }
+
+  /**
+   * The configuration.
+   *
+   * @return the configuration or null when Jenkins is not running
+   */
+  public static NetDomainLabelerConfiguration get() {
+    return GlobalConfiguration.all().get(NetDomainLabelerConfiguration.class);
+  }
+
+  @Override
+  public boolean configure(final StaplerRequest req, final JSONObject json) throws FormException {
+    try {
+      CidrDomainTable.parse(json.optString("cidrDomains"));
+    } catch (IllegalArgumentException ex) {
+      throw new FormException(ex.getMessage(), "cidrDomains");
+    }
+    try {
+      AddressPreference.parse(json.optString("preferredAddresses"));
+    } catch (IllegalArgumentException ex) {
+      throw new FormException(ex.getMessage(), "preferredAddresses");
+    }
+    try {
+      HostnameTemplates.parse(json.optString("hostnameTemplates"));
+    } catch (IllegalArgumentException ex) {
+      throw new FormException(ex.getMessage(), "hostnameTemplates");
+    }
+    boolean configured = super.configure(req, json);
+    // the setters only assign, saved and relabeled once for all the settings submitted together
+    save();
+    NodeLabelMgr.relabelChanged();
+    return configured;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Network Domain Labeler";
+  }
+
+  /**
+   * Whether agents report their own domain instead of the controller resolving it.
+   *
+   * @return true if agents resolve their domain
+   */
+  public boolean isAgentSideResolution() {
+    return agentSideResolution;
+  }
+
+  /**
+   * Sets whether agents report their own domain instead of the controller resolving it.
+   *
+   * @param agentSideResolution true if agents resolve their domain
+   */
+  @DataBoundSetter
+  public void setAgentSideResolution(final boolean agentSideResolution) {
+    this.agentSideResolution = agentSideResolution;
+    this.labelInputsFingerprint = null;
+  }
+
+  /**
+   * IP ranges in CIDR notation and their domain, one per line.
+   *
+   * @return the ranges
+   */
+  public String getCidrDomains() {
+    return cidrDomains;
+  }
+
+  /**
+   * Sets the IP ranges in CIDR notation and their domain, one per line.
+   *
+   * @param cidrDomains the ranges
+   */
+  @DataBoundSetter
+  public void setCidrDomains(final String cidrDomains) {
+    CidrDomainTable table = CidrDomainTable.parse(cidrDomains);
+    if (!Objects.equals(cidrDomains, this.cidrDomains)) {
+      this.cidrDomainTable = table;
+      this.cidrDomains = cidrDomains;
+      this.labelInputsFingerprint = null;
+      NodeLabelMgr.invalidateDomains();
+    }
+  }
+
+  /**
+   * The compiled ranges.
+   *
+   * @return the table
+   */
+  CidrDomainTable getCidrDomainTable() {
+    return cidrDomainTable;
+  }
+
+  /**
+   * Checks the IP ranges.
+   *
+   * @param value the ranges
+   * @return validation result
+   */
+  public FormValidation doCheckCidrDomains(@QueryParameter final String value) {
+    try {
+      CidrDomainTable.parse(value);
+      return FormValidation.ok();
+    } catch (IllegalArgumentException ex) {
+      return FormValidation.error(ex.getMessage());
+    }
+  }
+
+  /**
+   * Number of ancestor domains labeled after the domain of the node.
+   *
+   * @return the depth, 0 for the domain alone
+   */
+  public int getAncestorDepth() {
+    return ancestorDepth;
+  }
+
+  /**
+   * Sets the number of ancestor domains labeled after the domain of the node.
+   *
+   * @param ancestorDepth the depth, 0 for the domain alone
+   */
+  @DataBoundSetter
+  public void setAncestorDepth(final int ancestorDepth) {
+    int depth = Math.max(0, ancestorDepth);
+    if (depth != this.ancestorDepth) {
+      this.ancestorDepth = depth;
+      this.domainTrie = new DomainSuffixTrie(depth);
+      this.labelInputsFingerprint = null;
+    }
+  }
+
+  /**
+   * Domains seen so far and their ancestors.
+   *
+   * @return the trie
+   */
+  DomainSuffixTrie getDomainTrie() {
+    return domainTrie;
+  }
+
+  /**
+   * Deadline of domain lookups.
+   *
+   * @return the deadline in milliseconds, 0 for none
+   */
+  public int getLookupTimeout() {
+    return lookupTimeout;
+  }
+
+  /**
+   * Sets the deadline of domain lookups.
+   *
+   * @param lookupTimeout the deadline in milliseconds, 0 for none
+   */
+  @DataBoundSetter
+  public void setLookupTimeout(final int lookupTimeout) {
+    this.lookupTimeout = Math.max(0, lookupTimeout);
+  }
+
+  /**
+   * When host values are resolved through DNS instead of parsed.
+   *
+   * @return the policy
+   */
+  public ReverseLookupPolicy getReverseLookupPolicy() {
+    return reverseLookupPolicy == null ? ReverseLookupPolicy.UNQUALIFIED : reverseLookupPolicy;
+  }
+
+  /**
+   * Sets when host values are resolved through DNS instead of parsed.
+   *
+   * @param reverseLookupPolicy the policy
+   */
+  @DataBoundSetter
+  public void setReverseLookupPolicy(final ReverseLookupPolicy reverseLookupPolicy) {
+    if (reverseLookupPolicy != this.reverseLookupPolicy) {
+      this.reverseLookupPolicy = reverseLookupPolicy;
+      this.labelInputsFingerprint = null;
+      NodeLabelMgr.invalidateDomains();
+    }
+  }
+
+  /**
+   * Which addresses of a host name its domain.
+   *
+   * @return {@code ipv4}, {@code ipv6} or a range in CIDR notation
+   */
+  public String getPreferredAddresses() {
+    return preferredAddresses;
+  }
+
+  /**
+   * Sets which addresses of a host name its domain.
+   *
+   * @param preferredAddresses {@code ipv4}, {@code ipv6} or a range in CIDR notation
+   */
+  @DataBoundSetter
+  public void setPreferredAddresses(final String preferredAddresses) {
+    AddressPreference preference = AddressPreference.parse(preferredAddresses);
+    if (!Objects.equals(preferredAddresses, this.preferredAddresses)) {
+      this.addressPreference = preference;
+      this.preferredAddresses = preferredAddresses;
+      this.labelInputsFingerprint = null;
+      NodeLabelMgr.invalidateDomains();
+    }
+  }
+
+  /**
+   * The parsed address preference.
+   *
+   * @return the preference
+   */
+  AddressPreference getAddressPreference() {
+    return addressPreference;
+  }
+
+  /**
+   * Checks the address preference.
+   *
+   * @param value the preference
+   * @return validation result
+   */
+  public FormValidation doCheckPreferredAddresses(@QueryParameter final String value) {
+    try {
+      AddressPreference.parse(value);
+      return FormValidation.ok();
+    } catch (IllegalArgumentException ex) {
+      return FormValidation.error(ex.getMessage());
+    }
+  }
+
+  /**
+   * Templates deriving labels from host names, one per line.
+   *
+   * @return the templates
+   */
+  public String getHostnameTemplates() {
+    return hostnameTemplates;
+  }
+
+  /**
+   * Sets the templates deriving labels from host names, one per line.
+   *
+   * @param hostnameTemplates the templates
+   */
+  @DataBoundSetter
+  public void setHostnameTemplates(final String hostnameTemplates) {
+    HostnameTemplates compiled = HostnameTemplates.parse(hostnameTemplates);
+    if (!Objects.equals(hostnameTemplates, this.hostnameTemplates)) {
+      this.compiledTemplates = compiled;
+      this.hostnameTemplates = hostnameTemplates;
+      this.labelInputsFingerprint = null;
+    }
+  }
+
+  /**
+   * The compiled templates.
+   *
+   * @return the templates
+   */
+  HostnameTemplates getCompiledTemplates() {
+    return compiledTemplates;
+  }
+
+  /**
+   * Checks the hostname templates.
+   *
+   * @param value the templates
+   * @return validation result
+   */
+  public FormValidation doCheckHostnameTemplates(@QueryParameter final String value) {
+    try {
+      HostnameTemplates.parse(value);
+      return FormValidation.ok();
+    } catch (IllegalArgumentException ex) {
+      return FormValidation.error(ex.getMessage());
+    }
+  }
+
+  /**
+   * Fingerprint of the settings labels are computed from, which changes whenever one of them
+   * does.
+   *
+   * @return the fingerprint
+   */
+  String getLabelInputsFingerprint() {
+    String fingerprint = labelInputsFingerprint;
+    if (fingerprint == null) {
+      fingerprint =
+          PersistentLabelCache.fingerprint(
+              String.join(
+                  "\n",
+                  String.valueOf(agentSideResolution),
+                  String.valueOf(ancestorDepth),
+                  String.valueOf(getReverseLookupPolicy()),
+                  String.valueOf(preferredAddresses),
+                  String.valueOf(cidrDomains),
+                  String.valueOf(hostnameTemplates)));
+      labelInputsFingerprint = fingerprint;
+    }
+    return fingerprint;
+  }
+}
@@ -24,65 +24,260 @@
 package com.mkslnd.hudson.plugins.netdomainlabeler;
 
 import hudson.Extension;
+import hudson.ExtensionList;
 import hudson.model.Computer;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.model.labels.LabelAtom;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 
 /** @author guybrush */
 /** A cache of Node labels for the LabelFinder in our package. */
 @Extension
 public class NodeLabelMgr extends ComputerListener {
-  // this keeps a list of all nodes? why?
-  private static transient Set<Computer> lnodes =
-      Collections.synchronizedSet(Collections.EMPTY_SET);
   /** The labels computed for nodes - accessible package wide. */
-  static transient Map<Node, Collection<LabelAtom>> nodeLabels = new WeakHashMap<>();
+  static final transient LabelStore nodeLabels =
+      new LabelStore(
+          SystemProperties.getInteger(NodeLabelMgr.class.getName() + ".maxNodes", 50000),
+          NodeLabelMgr::isEvictable);
   /** Logging of issues. */
   private static final transient Logger LOGGER = Logger.getLogger(NodeLabelMgr.class.getName());
+  /** Number of threads resolving domains in the background. */
+  private static final int WORKERS =
+      SystemProperties.getInteger(NodeLabelMgr.class.getName() + ".workers", 4);
+  /** Number of computers that may wait for a resolver thread. */
+  private static final int QUEUE_SIZE =
+      SystemProperties.getInteger(NodeLabelMgr.class.getName() + ".queueSize", 4096);
+  /** Resolves domains off the thread that brings the computer online. */
+  static final transient ResolutionPipeline PIPELINE =
+      new ResolutionPipeline(ExecutorMode.configured(), WORKERS, QUEUE_SIZE);
+  /** At most one label computation in flight per node name. */
+  private static final transient SingleFlight<String, Collection<LabelAtom>> LOOKUPS =
+      new SingleFlight<>();
+  /** Number of host values whose domain is cached. */
+  private static final int DOMAIN_CACHE_SIZE =
+      SystemProperties.getInteger(NodeLabelMgr.class.getName() + ".domainCacheSize", 10000);
+  /** Domains resolved for host values, shared by all nodes. */
+  static final transient DomainCache DOMAINS =
+      new DomainCache(
+          SystemProperties.getLong(NodeLabelMgr.class.getName() + ".positiveTtl", 3600L),
+          SystemProperties.getLong(NodeLabelMgr.class.getName() + ".negativeTtl", 60L),
+          DOMAIN_CACHE_SIZE);
+  /** Host names found by reverse lookups, by host value, for the hostname templates. */
+  private static final transient ConcurrentMap<String, String> NAMES = new ConcurrentHashMap<>();
+  /** Host names whose combined domain and template labels are kept. */
+  private static final int MAX_COMBINED = 50000;
+  /** Domain and template labels of each host name, see {@link #labelsOf(String, String)}. */
+  private static final transient ConcurrentMap<String, CombinedLabels> COMBINED =
+      new ConcurrentHashMap<>();
+  /** Applies refreshed labels in batches. */
+  private static final transient RefreshCoalescer REFRESHES =
+      new RefreshCoalescer(
+          SystemProperties.getLong(NodeLabelMgr.class.getName() + ".refreshWindow", 1000L));
+  /** Name resolution. */
+  private static volatile HostResolver resolver = DnsClient.fromSystemProperties();
+  /** Number of computers resolved concurrently by bulk resolutions. */
+  static final int BULK_CONCURRENCY =
+      SystemProperties.getInteger(NodeLabelMgr.class.getName() + ".bulkConcurrency", 16);
+  /** Stops calling DNS after consecutive lookups failed or ran past their deadline. */
+  static final transient CircuitBreaker BREAKER =
+      new CircuitBreaker(
+          SystemProperties.getInteger(NodeLabelMgr.class.getName() + ".breakerThreshold", 5),
+          SystemProperties.getLong(NodeLabelMgr.class.getName() + ".breakerOpen", 30L));
+  /** Inputs the labels of each node were last computed from. */
+  static final transient LabelInputs INPUTS = new LabelInputs();
+  /** Runs DNS lookups so they can be abandoned at their deadline. */
+  private static final transient ExecutorService DNS =
+      PIPELINE.getMode().tasks("NetDomainLabeler DNS");
+  /** DNS calls running at once on {@link #DNS}, those abandoned at their deadline included. */
+  static final int DNS_THREADS =
+      SystemProperties.getInteger(NodeLabelMgr.class.getName() + ".dnsThreads", 64);
+  /** Free slots of {@link #DNS}. */
+  private static final transient Semaphore DNS_SLOTS = new Semaphore(DNS_THREADS);
 
   /**
-   * When a computer comes online, probe it for its platform labels.
+   * When a computer comes online, queue the resolution of its labels and return.
+   *
+   * <p>Labels are published and the model refreshed once the resolution completes, until then
+   * {@link NetDomainLabeler#findLabels} returns no labels for the node. Shortly after startup the
+   * computer is resolved with the other agents reconnecting by {@link LabelWarmup}.
    *
    * @param computer agent whose labels will be cached
    * @param ignored TaskListener that is ignored
-   * @throws java.io.IOException on IO error
-   * @throws java.lang.InterruptedException on thread interrupt
    */
   @Override
-  public final void onOnline(final Computer computer, final TaskListener ignored)
-      throws IOException, InterruptedException {
-    cacheLabels(computer);
-    refreshModel(computer);
+  public final void onOnline(final Computer computer, final TaskListener ignored) {
+    if (!LabelWarmup.offer(computer)) {
+      enqueue(computer);
+    }
   }
 
-  /** When any computer has changed, update the platform labels according to the configuration. */
+  /**
+   * When a computer goes offline, forget its labels; they are resolved again if it comes back.
+   *
+   * @param computer agent that went offline
+   * @param cause why it went offline, ignored
+   */
+  @Override
+  public final void onOffline(final Computer computer, final OfflineCause cause) {
+    evict(computer.getName());
+  }
+
+  /**
+   * Forgets the labels of a node and refreshes the labels it carried.
+   *
+   * @param nodeName name of the node
+   */
+  static void evict(final String nodeName) {
+    REFRESHES.cancel(nodeName);
+    INPUTS.remove(nodeName);
+    Collection<LabelAtom> previous = nodeLabels.evict(nodeName);
+    if (previous != null) {
+      refreshLabels(previous);
+    }
+  }
+
+  /**
+   * Whether the labels of a node may be evicted to keep the store within its bound: the labels of
+   * online nodes are in use by the queue and would not be resolved again.
+   *
+   * @param nodeName name of the node
+   * @return true if the node is offline or gone
+   */
+  private static boolean isEvictable(final String nodeName) {
+    Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) {
+      return true;
+    }
+    Computer computer = jenkins.getComputer(nodeName);
+    return computer == null || computer.isOffline();
+  }
+
+  /**
+   * Queues the resolution of the labels of the computer.
+   *
+   * @param computer node whose labels will be resolved
+   * @return false if the computer was not queued
+   */
+  final boolean enqueue(final Computer computer) {
+    if (computer == null) {
+      return false;
+    }
+    return PIPELINE.submit(computer.getName(), () -> resolve(computer));
+  }
+
+  /**
+   * Resolves and publishes the labels of the computer, runs on a pipeline thread.
+   *
+   * @param computer node whose labels will be resolved
+   */
+  private void resolve(final Computer computer) {
+    try {
+      refreshModel(computer);
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to resolve labels of " + computer.getName(), ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * When any computer has changed, recompute the labels of the computers whose inputs changed.
+   *
+   * <p>Saving the configuration of one node does not resolve the others again.
+   */
   @Override
   public final void onConfigurationChange() {
-    synchronized (lnodes) {
-      lnodes.forEach(
-          (node) -> {
-            try {
+    relabelChanged();
+    pruneLabels();
+  }
 
-              refreshModel(node);
-            } catch (IOException | InterruptedException e) {
-              LOGGER.log(Level.INFO, "Ostia tremenda");
-            }
-          });
+  /**
+   * Queues the resolution of the labels of the online computers whose settings changed since
+   * their labels were computed, or whose labels were never computed.
+   *
+   * <p>Runs on the thread saving the configuration, so it asks no agent for its host value: that
+   * would be a channel round-trip per agent. The host value of an agent only changes when it
+   * connects again, which resolves its labels anyway, so the recorded one is still current.
+   *
+   * @return number of computers queued
+   */
+  static int relabelChanged() {
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) {
+      return 0;
     }
+    NodeLabelMgr mgr = ExtensionList.lookupSingleton(NodeLabelMgr.class);
+    String settings = settingsFingerprint();
+    int queued = 0;
+    for (Computer computer : jenkins.getComputers()) {
+      if (computer.isOnline()
+          && INPUTS.changed(computer.getName(), null, settings)
+          && mgr.enqueue(computer)) {
+        queued++;
+      }
+    }
+    return queued;
+  }
+
+  /**
+   * Fingerprint of what, besides its host value, the labels of a node are computed from.
+   *
+   * @return the fingerprint
+   */
+  static String settingsFingerprint() {
+    String resolverName = resolver.getClass().getName();
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    return config == null ? resolverName : resolverName + ' ' + config.getLabelInputsFingerprint();
+  }
+
+  /** Drops the labels of nodes that no longer exist. */
+  static void pruneLabels() {
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) {
+      return;
+    }
+    Set<String> names = new HashSet<>();
+    names.add(jenkins.getNodeName());
+    jenkins.getNodes().forEach(node -> names.add(node.getNodeName()));
+    nodeLabels.retainAll(names);
+    PersistentLabelCache.retainAll(names);
   }
 
   /**
@@ -96,25 +291,220 @@ public class NodeLabelMgr extends ComputerListener {
     /* Cache the labels for the node */
     if (computer != null) {
       Node node = computer.getNode();
-      if (node != null) nodeLabels.put(node, getLabelsForNode(node));
+      if (node != null) nodeLabels.put(node, computeLabels(node));
     }
   }
 
   /**
    * Update Jenkins' model so that labels for this computer are up to date.
    *
+   * <p>The new labels are applied together with those of the other nodes refreshed within the
+   * same window.
+   *
    * @param computer node whose labels will be cached
    */
   final void refreshModel(final Computer computer) throws IOException, InterruptedException {
     if (computer != null) {
       Node node = computer.getNode();
       if (node != null) {
-        nodeLabels.put(node, getLabelsForNode(node));
-        node.getAssignedLabels();
+        Collection<LabelAtom> labels = computeLabels(node);
+        // the computer may have gone offline and been evicted meanwhile
+        if (computer.isOnline()) {
+          REFRESHES.offer(node.getNodeName(), labels);
+        }
       }
     }
   }
 
+  /**
+   * Number of refreshes merged into the label model update of another one.
+   *
+   * @return refreshes merged
+   */
+  static long getMergedRefreshes() {
+    return REFRESHES.getMerged();
+  }
+
+  /**
+   * Resolves the labels of the computers in parallel without storing them.
+   *
+   * @param computers computers whose labels will be resolved
+   * @return labels by node name of the computers that could be resolved
+   * @throws InterruptedException on thread interruption
+   */
+  final Map<String, Collection<LabelAtom>> resolveAll(final Collection<Computer> computers)
+      throws InterruptedException {
+    Map<String, Collection<LabelAtom>> resolved = new ConcurrentHashMap<>();
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (Computer computer : computers) {
+      Node node = computer.getNode();
+      if (node == null) {
+        continue;
+      }
+      tasks.add(
+          () -> {
+            try {
+              resolved.put(node.getNodeName(), computeLabels(node));
+            } catch (IOException ex) {
+              LOGGER.log(Level.WARNING, "Unable to resolve labels of " + node.getNodeName(), ex);
+            }
+            return null;
+          });
+    }
+    if (tasks.isEmpty()) {
+      return resolved;
+    }
+    ExecutorService executor;
+    if (PIPELINE.getMode() == ExecutorMode.VIRTUAL) {
+      executor = ExecutorMode.VIRTUAL.tasks("NetDomainLabeler bulk resolver");
+      if (!(resolver instanceof DnsClient)) {
+        // only the DNS client pipelines lookups, the JVM resolver blocks a thread per lookup
+        Semaphore permits = new Semaphore(BULK_CONCURRENCY);
+        List<Callable<Void>> bounded = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+          bounded.add(
+              () -> {
+                permits.acquire();
+                try {
+                  return task.call();
+                } finally {
+                  permits.release();
+                }
+              });
+        }
+        tasks = bounded;
+      }
+    } else {
+      executor =
+          Executors.newFixedThreadPool(
+              Math.min(BULK_CONCURRENCY, tasks.size()),
+              new NamingThreadFactory(new DaemonThreadFactory(), "NetDomainLabeler bulk resolver"));
+    }
+    try {
+      executor.invokeAll(tasks);
+    } finally {
+      executor.shutdownNow();
+    }
+    return resolved;
+  }
+
+  /**
+   * Stores the labels of the nodes whose labels changed.
+   *
+   * <p>The label model is not refreshed, callers do it once they are done.
+   *
+   * @param labels labels by node name
+   * @param affected receives the labels added to or removed from a node, labels a node keeps are
+   *     left out
+   * @return names of the nodes whose labels changed
+   */
+  static Set<String> publish(
+      final Map<String, Collection<LabelAtom>> labels, final Set<LabelAtom> affected) {
+    Set<String> changed = new HashSet<>();
+    labels.forEach(
+        (name, nodeLabelSet) -> {
+          Collection<LabelAtom> previous = nodeLabels.get(name);
+          Set<LabelAtom> current = LabelStore.snapshot(nodeLabelSet);
+          if (previous == null || !previous.equals(current)) {
+            nodeLabels.put(name, current);
+            changed.add(name);
+            for (LabelAtom atom : current) {
+              if (previous == null || !previous.contains(atom)) {
+                affected.add(atom);
+              }
+            }
+            if (previous != null) {
+              for (LabelAtom atom : previous) {
+                if (!current.contains(atom)) {
+                  affected.add(atom);
+                }
+              }
+            }
+          }
+        });
+    return changed;
+  }
+
+  /**
+   * Makes Jenkins recompute which nodes carry the given labels and the label expressions using
+   * them, leaving other labels alone.
+   *
+   * @param labels labels added to or removed from some node
+   */
+  static void refreshLabels(final Collection<LabelAtom> labels) {
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null || labels.isEmpty()) {
+      return;
+    }
+    Set<Label> stale = dependentLabels(jenkins.getLabels(), labels);
+    stale.forEach(Label::reset);
+    LabelerMetrics.LABEL_RESETS.add(stale.size());
+    jenkins.getQueue().scheduleMaintenance();
+  }
+
+  /**
+   * The labels whose nodes change when the given atoms are added to or removed from a node: the
+   * atoms themselves and every expression using one of them.
+   *
+   * <p>Once Jenkins trimmed labels, the atoms stored for a node may be other instances than the
+   * ones Jenkins knows, equal by name; both are reset.
+   *
+   * @param known labels known to Jenkins
+   * @param atoms atoms added to or removed from some node
+   * @return the labels to reset
+   */
+  static Set<Label> dependentLabels(
+      final Collection<? extends Label> known, final Collection<LabelAtom> atoms) {
+    Set<Label> stale = Collections.newSetFromMap(new IdentityHashMap<>());
+    stale.addAll(atoms);
+    for (Label label : known) {
+      if (label instanceof LabelAtom) {
+        if (atoms.contains(label)) {
+          stale.add(label);
+        }
+        continue;
+      }
+      for (LabelAtom atom : label.listAtoms()) {
+        if (atoms.contains(atom)) {
+          stale.add(label);
+          break;
+        }
+      }
+    }
+    return stale;
+  }
+
+  /**
+   * Computes the labels for the node, sharing the computation already in flight for it if any.
+   *
+   * @param node Node whose labels should be generated
+   * @return Collection with labels
+   * @throws IOException on I/O error
+   * @throws InterruptedException on thread interruption
+   */
+  final Collection<LabelAtom> computeLabels(final Node node)
+      throws IOException, InterruptedException {
+    return LOOKUPS.run(node.getNodeName(), () -> getLabelsForNode(node));
+  }
+
+  /**
+   * Number of label computations actually run.
+   *
+   * @return computations run
+   */
+  static long getLabelComputations() {
+    return LOOKUPS.getExecuted();
+  }
+
+  /**
+   * Number of label computations saved by sharing one already in flight for the same node.
+   *
+   * @return computations saved
+   */
+  static long getSharedLabelComputations() {
+    return LOOKUPS.getShared();
+  }
+
   /**
    * Return collection of generated labels for the given node.
    *
@@ -124,19 +514,43 @@ public class NodeLabelMgr extends ComputerListener {
   public Collection<LabelAtom> getLabelsForNode(final Node node)
       throws IOException, InterruptedException {
     //    dumpExistingLabels();
-    Set<LabelAtom> result = new HashSet<>();
+    Collection<LabelAtom> result = Collections.emptySet();
     try {
       Computer computer = node.toComputer();
 
       if (computer != null) {
         String hostname = "NoName";
-        hostname =
-            computer.getHostName(); // Esto devuelve el host bueno. fqdn No need of reverse resolve.
-        String domain;
-        domain = getDomainOf(hostname);
+        String domain = null;
+        NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+        if (config != null && config.isAgentSideResolution()) {
+          String[] reported = resolveOnAgent(computer);
+          if (AgentDomainCallable.isValid(reported)) {
+            hostname = reported[AgentDomainCallable.FQDN];
+            domain = AgentDomainCallable.domainOf(reported);
+          } else if (reported != null) {
+            LOGGER.log(
+                Level.WARNING,
+                "Agent {0} reported an invalid name, resolving it on the controller",
+                node.getNodeName());
+          }
+        }
+        if (domain == null) {
+          // Esto devuelve el host bueno. fqdn No need of reverse resolve.
+          long start = System.nanoTime();
+          hostname = computer.getHostName();
+          LabelerMetrics.HOSTNAME.recordSince(start);
+          domain = getDomainOf(hostname);
+        }
         //        LOGGER.log(Level.INFO, "SET DOMAIN:" + domain);
-        final Jenkins jenkins = Jenkins.getInstanceOrNull();
-        if (jenkins != null) result.add(jenkins.getLabelAtom(domain));
+        boolean resolved = domain != null;
+        if (!resolved) {
+          domain = lastKnownDomain(node.getNodeName(), hostname);
+        }
+        result = labelsOf(domain, hostNameOf(hostname));
+        if (resolved && hostname != null) {
+          PersistentLabelCache.record(node.getNodeName(), hostname, domain, result);
+        }
+        INPUTS.record(node.getNodeName(), hostname, settingsFingerprint());
       }
     } catch (IOException | InterruptedException ex) {
       Logger.getLogger(NetDomainLabeler.class.getName()).log(Level.SEVERE, null, ex);
@@ -145,6 +559,163 @@ public class NodeLabelMgr extends ComputerListener {
     return result;
   }
 
+  /**
+   * The last domain successfully resolved for a node, used while its host value does not resolve.
+   *
+   * @param nodeName name of the node
+   * @param hostValue current host value of the node, may be null
+   * @return the domain, or null if none was resolved for that host value
+   */
+  static String lastKnownDomain(final String nodeName, final String hostValue) {
+    PersistentLabelCache.Entry entry = PersistentLabelCache.get(nodeName);
+    if (entry == null
+        || hostValue == null
+        || !entry.fingerprint.equals(PersistentLabelCache.fingerprint(hostValue))) {
+      return null;
+    }
+    LabelerMetrics.FALLBACKS.increment();
+    return entry.domain;
+  }
+
+  /**
+   * Ask the agent for its own FQDN and search domain.
+   *
+   * @param computer the agent
+   * @return what the agent reported, or null if it could not answer
+   * @throws InterruptedException on thread interruption
+   */
+  private static String[] resolveOnAgent(final Computer computer) throws InterruptedException {
+    VirtualChannel channel = computer.getChannel();
+    if (channel == null) {
+      return null;
+    }
+    try {
+      return resolveOnAgent(channel);
+    } catch (IOException ex) {
+      LOGGER.log(Level.FINE, "Agent " + computer.getName() + " could not report its domain", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Ask the agent at the other end of the channel for its own FQDN and search domain, within the
+   * lookup deadline.
+   *
+   * @param channel channel to the agent
+   * @return what the agent reported
+   * @throws IOException when the agent cannot be reached or does not answer in time
+   * @throws InterruptedException on thread interruption
+   */
+  static String[] resolveOnAgent(final VirtualChannel channel)
+      throws IOException, InterruptedException {
+    long timeout = lookupTimeout();
+    Future<String[]> reported = channel.callAsync(new AgentDomainCallable());
+    try {
+      return timeout > 0 ? reported.get(timeout, TimeUnit.MILLISECONDS) : reported.get();
+    } catch (TimeoutException ex) {
+      reported.cancel(true);
+      LabelerMetrics.TIMEOUTS.increment();
+      throw new IOException("The agent did not report its domain within " + timeout + " ms", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    } catch (InterruptedException ex) {
+      reported.cancel(true);
+      throw ex;
+    }
+  }
+
+  /**
+   * Return the labels generated for a domain.
+   *
+   * @param domain the domain, may be null
+   * @return immutable Collection with labels shared by all nodes of the domain, empty if there is
+   *     no domain
+   */
+  static Collection<LabelAtom> labelsOf(final String domain) {
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null || domain == null) {
+      return Collections.emptySet();
+    }
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    if (config == null) {
+      return Collections.singleton(jenkins.getLabelAtom(domain));
+    }
+    return config.getDomainTrie().labelsOf(domain, jenkins::getLabelAtom);
+  }
+
+  /**
+   * The host name the templates are applied to: the one found by the reverse lookup of the host
+   * value, or the host value itself.
+   *
+   * @param hostValue the host value, may be null
+   * @return the host name
+   */
+  static String hostNameOf(final String hostValue) {
+    String name = hostValue == null ? null : NAMES.get(hostValue);
+    return name == null ? hostValue : name;
+  }
+
+  /** Labels of a domain and host name together, with the parts they were made from. */
+  private static final class CombinedLabels {
+    /** Labels of the domain. */
+    final Collection<LabelAtom> domain;
+    /** Labels derived from the host name. */
+    final Set<LabelAtom> derived;
+    /** Both. */
+    final Set<LabelAtom> labels;
+
+    CombinedLabels(
+        final Collection<LabelAtom> domain,
+        final Set<LabelAtom> derived,
+        final Set<LabelAtom> labels) {
+      this.domain = domain;
+      this.derived = derived;
+      this.labels = labels;
+    }
+  }
+
+  /**
+   * The labels of a domain followed by those the hostname templates derive from the host name.
+   *
+   * <p>Both parts are shared sets, so their union is made once per host name and kept while the
+   * host name has the same domain and Jenkins has the same labels.
+   *
+   * @param domain the domain, may be null
+   * @param hostname the host name, may be null
+   * @return the labels
+   */
+  static Collection<LabelAtom> labelsOf(final String domain, final String hostname) {
+    Collection<LabelAtom> labels = labelsOf(domain);
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null || hostname == null) {
+      return labels;
+    }
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    if (config == null) {
+      return labels;
+    }
+    Set<LabelAtom> derived =
+        config.getCompiledTemplates().labelsOf(hostname, jenkins::getLabelAtom);
+    if (derived.isEmpty()) {
+      return labels;
+    }
+    if (labels.isEmpty()) {
+      return derived;
+    }
+    CombinedLabels combined = COMBINED.get(hostname);
+    if (combined == null || combined.domain != labels || combined.derived != derived) {
+      List<LabelAtom> all = new ArrayList<>(labels);
+      all.addAll(derived);
+      combined = new CombinedLabels(labels, derived, new InternedLabelSet(all));
+      if (COMBINED.size() >= MAX_COMBINED) {
+        COMBINED.clear();
+      }
+      COMBINED.put(hostname, combined);
+    }
+    return combined.labels;
+  }
+
   /**
    * Return collection of generated/cached labels for the given node.
    *
@@ -153,7 +724,13 @@ public class NodeLabelMgr extends ComputerListener {
    */
   public static Collection<LabelAtom> getCachedLabelsForNode(final Node node)
       throws IOException, InterruptedException {
-    return nodeLabels.get(node);
+    Collection<LabelAtom> labels = nodeLabels.get(node);
+    if (labels == null) {
+      LabelerMetrics.LABEL_MISSES.increment();
+    } else {
+      LabelerMetrics.LABEL_HITS.increment();
+    }
+    return labels;
   }
 
   public static void addLabelsForNode(final Node node, Collection<LabelAtom> labels)
@@ -219,32 +796,343 @@ public class NodeLabelMgr extends ComputerListener {
     }
   */
   /**
-   * Return the Domain of a given string.
+   * Return the Domain of a given string, from the shared cache when possible.
    *
    * @param hostvalue whatever you have for the host. ip, name, fqdn
    * @return domain or null
    */
-  private String getDomainOf(String hostValue) {
+  String getDomainOf(String hostValue) {
+    if (hostValue == null) {
+      return null;
+    }
+    ReverseLookupPolicy policy = reverseLookupPolicy();
+    if (policy != ReverseLookupPolicy.ALWAYS) {
+      String domain = HostNames.domainOf(hostValue);
+      if (domain != null) {
+        LabelerMetrics.PARSED.increment();
+        return domain;
+      }
+    }
+    return DOMAINS.get(hostValue, NodeLabelMgr::lookupDomain);
+  }
+
+  /**
+   * The configured reverse lookup policy.
+   *
+   * @return the policy
+   */
+  private static ReverseLookupPolicy reverseLookupPolicy() {
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    return config == null ? ReverseLookupPolicy.UNQUALIFIED : config.getReverseLookupPolicy();
+  }
+
+  /**
+   * Resolve the Domain of a given string, giving up at the configured deadline.
+   *
+   * <p>Lookups running past the deadline or failing count as failures of the {@link #BREAKER
+   * circuit breaker}; while it is open DNS is not called at all and only the CIDR table is used.
+   * So do lookups finding every {@link #DNS_THREADS DNS thread} held by lookups not returning.
+   *
+   * @param hostvalue whatever you have for the host. ip, name, fqdn
+   * @return domain or null
+   */
+  static String lookupDomain(String hostValue) {
+    CidrDomainTable table = cidrDomains();
+    byte[] literal = CidrDomainTable.literalAddress(hostValue);
+    if (literal != null) {
+      String domain = table.lookup(literal);
+      if (domain != null) {
+        return domain;
+      }
+    }
+    if (reverseLookupPolicy() == ReverseLookupPolicy.NEVER) {
+      return null;
+    }
+    if (!BREAKER.allowRequest()) {
+      LOGGER.log(Level.FINE, "DNS circuit breaker open, not resolving {0}", hostValue);
+      return null;
+    }
+    long timeout = lookupTimeout();
+    if (timeout <= 0) {
+      try {
+        String domain = resolveDomain(hostValue, table);
+        BREAKER.recordSuccess();
+        return domain;
+      } catch (RuntimeException ex) {
+        BREAKER.recordFailure();
+        LabelerMetrics.FAILURES.increment();
+        LOGGER.log(Level.WARNING, "Unable to resolve domain of " + hostValue, ex);
+        return null;
+      }
+    }
+    Future<String> lookup = submitDns(() -> resolveDomain(hostValue, table), null);
+    if (lookup == null) {
+      // every slot is held by a lookup that does not return, as good as a timeout
+      BREAKER.recordFailure();
+      LabelerMetrics.TIMEOUTS.increment();
+      LOGGER.log(
+          Level.WARNING,
+          "{0} DNS lookups are running, not resolving {1}",
+          new Object[] {DNS_THREADS, hostValue});
+      return null;
+    }
     try {
-      InetAddress host = InetAddress.getByName(hostValue);
-      String fqdn = host.getHostName();
-      //      String domain = fqdn.substring(fqdn.indexOf("."), (fqdn.length() -
-      // fqdn.indexOf(".")));
-      String domain = fqdn.substring(fqdn.indexOf(".") + 1);
+      String domain = lookup.get(timeout, TimeUnit.MILLISECONDS);
+      BREAKER.recordSuccess();
       return domain;
-      /*      if ( validIP(hostValue)) {
-          //Is an IP address
-          host = InetAddress.getByAddress(hostValue)
-          }
-          else {
-          //is a Hostname
-          host = InetAddress.getByName(hostValue);
+    } catch (TimeoutException ex) {
+      lookup.cancel(true);
+      BREAKER.recordFailure();
+      LabelerMetrics.TIMEOUTS.increment();
+      LOGGER.log(
+          Level.WARNING,
+          "Resolving the domain of {0} took more than {1} ms",
+          new Object[] {hostValue, timeout});
+      return null;
+    } catch (ExecutionException ex) {
+      BREAKER.recordFailure();
+      LabelerMetrics.FAILURES.increment();
+      LOGGER.log(Level.WARNING, "Unable to resolve domain of " + hostValue, ex.getCause());
+      return null;
+    } catch (InterruptedException ex) {
+      lookup.cancel(true);
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
 
+  /**
+   * Runs a DNS call on {@link #DNS} if one of its {@link #DNS_THREADS} slots is free. The slot is
+   * held until the call returns, even when it was abandoned, so lookups that never return cannot
+   * pile up threads.
+   *
+   * @param call the DNS call
+   * @param completed where the call is added once done, or null
+   * @param <T> result of the call
+   * @return the running call, or null when every slot is taken
+   */
+  private static <T> Future<T> submitDns(
+      final Callable<T> call, final BlockingQueue<Future<T>> completed) {
+    if (!DNS_SLOTS.tryAcquire()) {
+      return null;
+    }
+    // whichever of the call and its cancellation comes first frees the slot
+    AtomicBoolean claimed = new AtomicBoolean();
+    FutureTask<T> task =
+        new FutureTask<T>(
+            () -> {
+              if (!claimed.compareAndSet(false, true)) {
+                return null;
+              }
+              try {
+                return call.call();
+              } finally {
+                DNS_SLOTS.release();
+              }
+            }) {
+          @Override
+          protected void done() {
+            if (isCancelled() && claimed.compareAndSet(false, true)) {
+              DNS_SLOTS.release();
+            }
+            if (completed != null) {
+              completed.add(this);
+            }
           }
-      */ } catch (UnknownHostException ex) {
-      Logger.getLogger(NodeLabelMgr.class.getName()).log(Level.SEVERE, null, ex);
+        };
+    try {
+      DNS.execute(task);
+    } catch (RejectedExecutionException ex) {
+      task.cancel(false);
       return null;
     }
+    return task;
+  }
+
+  /**
+   * Resolve the Domain of a given string through DNS, without deadline. Every address of the
+   * host is considered, in the configured order of preference.
+   *
+   * @param hostvalue whatever you have for the host. ip, name, fqdn
+   * @param table CIDR to domain table
+   * @return domain or null
+   */
+  private static String resolveDomain(final String hostValue, final CidrDomainTable table) {
+    try {
+      long start = System.nanoTime();
+      InetAddress[] addresses = addressPreference().sort(resolver.forwardAll(hostValue));
+      LabelerMetrics.FORWARD_DNS.recordSince(start);
+      for (InetAddress address : addresses) {
+        String mapped = table.lookup(address);
+        if (mapped != null) {
+          return mapped;
+        }
+      }
+      start = System.nanoTime();
+      String fqdn = reverseAll(hostValue, addresses);
+      LabelerMetrics.REVERSE_DNS.recordSince(start);
+      if (fqdn == null) {
+        return null;
+      }
+      if (!fqdn.equals(hostValue)) {
+        if (NAMES.size() >= DOMAIN_CACHE_SIZE) {
+          // a cached domain without its host name would get the templates of the host value
+          invalidateDomains();
+        }
+        NAMES.put(hostValue, fqdn);
+      }
+      return fqdn.substring(fqdn.indexOf(".") + 1);
+    } catch (UnknownHostException ex) {
+      LabelerMetrics.FAILURES.increment();
+      LOGGER.log(
+          Level.WARNING, "Unable to resolve domain of {0}: {1}", new Object[] {hostValue, ex});
+      return null;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Reverse resolves all the addresses of a host at once, Happy Eyeballs style: the first name
+   * found for an address of the best rank wins, and an address of the next rank only once every
+   * address of the better ones found no name. A single address is looked up the same way, on the
+   * calling thread. When no address has a name, the host value is used if it is a host name.
+   *
+   * @param hostValue the host value the addresses were resolved from
+   * @param addresses addresses of the host, by rank
+   * @return host name, or null when neither the addresses nor the host value give one
+   * @throws InterruptedException when interrupted while waiting for the lookups
+   */
+  private static String reverseAll(final String hostValue, final InetAddress[] addresses)
+      throws InterruptedException {
+    AddressPreference preference = addressPreference();
+    BlockingQueue<Future<String>> lookups = new LinkedBlockingQueue<>();
+    Map<Future<String>, InetAddress> pending = new HashMap<>();
+    int[] remaining = new int[AddressPreference.RANKS];
+    String[] found = new String[AddressPreference.RANKS];
+    try {
+      for (InetAddress address : addresses) {
+        // without the host name, so that its PTR record is looked up
+        InetAddress bare = InetAddress.getByAddress(address.getAddress());
+        Callable<String> reverse = () -> resolver.reverse(bare);
+        Future<String> lookup = addresses.length > 1 ? submitDns(reverse, lookups) : null;
+        if (lookup == null) {
+          // a single address, or no free DNS thread, look it up on this one
+          FutureTask<String> inline = new FutureTask<>(reverse);
+          inline.run();
+          lookups.add(inline);
+          lookup = inline;
+        }
+        pending.put(lookup, address);
+        remaining[preference.rank(address)]++;
+      }
+      while (!pending.isEmpty()) {
+        Future<String> lookup = lookups.take();
+        InetAddress address = pending.remove(lookup);
+        int rank = preference.rank(address);
+        remaining[rank]--;
+        try {
+          String name = lookup.get();
+          if (found[rank] == null && isHostName(name, address)) {
+            found[rank] = name;
+          }
+        } catch (ExecutionException ex) {
+          LOGGER.log(Level.FINE, "Reverse lookup of " + address + " failed", ex.getCause());
+        }
+        for (int i = 0; i < AddressPreference.RANKS; i++) {
+          if (found[i] != null) {
+            return found[i];
+          }
+          if (remaining[i] > 0) {
+            break;
+          }
+        }
+      }
+    } catch (UnknownHostException ex) {
+      // the address of an InetAddress is always valid
+      throw new IllegalStateException(ex);
+    } finally {
+      for (Future<String> lookup : pending.keySet()) {
+        lookup.cancel(true);
+      }
+    }
+    // the PTR records are missing, the host may still have been named
+    String name =
+        hostValue.endsWith(".") ? hostValue.substring(0, hostValue.length() - 1) : hostValue;
+    return CidrDomainTable.literalAddress(name) == null && isHostName(name, addresses[0])
+        ? name
+        : null;
+  }
+
+  /**
+   * Whether a reverse lookup found a host name rather than giving the address back.
+   *
+   * @param name result of the lookup
+   * @param address the address looked up
+   * @return true for a qualified host name
+   */
+  private static boolean isHostName(final String name, final InetAddress address) {
+    return name != null && name.indexOf('.') > 0 && !name.equals(address.getHostAddress());
+  }
+
+  /**
+   * The configured preference among the addresses of a host.
+   *
+   * @return the preference
+   */
+  private static AddressPreference addressPreference() {
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    return config == null ? AddressPreference.IPV4 : config.getAddressPreference();
+  }
+
+  /**
+   * The configured deadline of domain lookups.
+   *
+   * @return the deadline in milliseconds, 0 for none
+   */
+  private static long lookupTimeout() {
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    return config == null
+        ? NetDomainLabelerConfiguration.DEFAULT_LOOKUP_TIMEOUT
+        : config.getLookupTimeout();
+  }
+
+  /**
+   * Replaces the name resolution, for tests and benchmarks.
+   *
+   * @param hostResolver the resolution to use, by default {@link DnsClient} when {@code
+   *     DnsClient.server} is set and {@link HostResolver#JDK} otherwise
+   */
+  static void setResolver(final HostResolver hostResolver) {
+    resolver = hostResolver;
+    invalidateDomains();
+  }
+
+  /**
+   * The configured CIDR to domain table.
+   *
+   * @return the table, empty when none is configured
+   */
+  private static CidrDomainTable cidrDomains() {
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    return config == null ? CidrDomainTable.EMPTY : config.getCidrDomainTable();
+  }
+
+  /**
+   * Forget the cached domain of a host value so it is resolved again on next use.
+   *
+   * @param hostValue whatever you have for the host. ip, name, fqdn
+   */
+  public static void invalidateDomain(final String hostValue) {
+    DOMAINS.invalidate(hostValue);
+    NAMES.remove(hostValue);
+  }
+
+  /** Forget all cached domains. */
+  public static void invalidateDomains() {
+    DOMAINS.invalidateAll();
+    NAMES.clear();
   }
   /*
   Not Needed any more using InetAddress. that should handle ip addesses as well
@@ -0,0 +1,390 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.labels.LabelAtom;
+import hudson.util.AtomicFileWriter;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Node domains and labels saved under JENKINS_HOME so that labels are served right after a
+ * restart, before any DNS lookup. Each line holds the node name, a fingerprint of its host value,
+ * its domain, when it was resolved and its labels, separated by tabs. Backslashes, tabs and line
+ * breaks in names, domains and labels are escaped. Lines written before labels were saved are
+ * served the labels of their domain.
+ *
+ * <p>Entries are revalidated as nodes are resolved again, and replaced when the host value, the
+ * domain or the labels changed. Writes are batched and atomic.
+ */
+public final class PersistentLabelCache {
+  /** Logging of issues. */
+  private static final transient Logger LOGGER =
+      Logger.getLogger(PersistentLabelCache.class.getName());
+  /** Name of the file in JENKINS_HOME. */
+  static final String FILE_NAME = "netdomain-labeler-cache.txt";
+  /** Seconds after which a saved entry is too old to be served. */
+  private static final long MAX_AGE =
+      SystemProperties.getLong(PersistentLabelCache.class.getName() + ".maxAge", 604800L);
+  /** Seconds changes are batched before being written. */
+  private static final long FLUSH_DELAY =
+      SystemProperties.getLong(PersistentLabelCache.class.getName() + ".flushDelay", 5L);
+  /** Saved entries by node name. */
+  private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+  /** Whether a write is already scheduled. */
+  private static final AtomicBoolean FLUSH_SCHEDULED = new AtomicBoolean();
+
+  /** A saved resolution. */
+  static final class Entry {
+    /** Fingerprint of the host value the domain was resolved from. */
+    final String fingerprint;
+    /** The host value itself, never written, null for entries read from the file. */
+    final String hostValue;
+    /** Resolved domain. */
+    final String domain;
+    /** When it was resolved, in milliseconds since the epoch. */
+    final long timestamp;
+    /** Names of the labels computed from the domain and host name, in the order computed. */
+    final List<String> labels;
+
+    Entry(
+        final String fingerprint,
+        final String hostValue,
+        final String domain,
+        final long timestamp,
+        final List<String> labels) {
+      this.fingerprint = fingerprint;
+      this.hostValue = hostValue;
+      this.domain = domain;
+      this.timestamp = timestamp;
+      this.labels = labels;
+    }
+  }
+
+  private PersistentLabelCache() {}
+
+  /** Serves the saved labels as soon as extensions are available. */
+  @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED, before = InitMilestone.JOB_LOADED)
+  public static void load() {
+    File file = getFile();
+    if (file == null || !file.exists()) {
+      return;
+    }
+    final Jenkins jenkins = Jenkins.get();
+    long oldest = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(MAX_AGE);
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 4) {
+          continue;
+        }
+        long timestamp;
+        try {
+          timestamp = Long.parseLong(fields[3]);
+        } catch (NumberFormatException ex) {
+          continue;
+        }
+        if (timestamp < oldest || fields[2].isEmpty()) {
+          continue;
+        }
+        String nodeName = unescape(fields[0]);
+        String domain = unescape(fields[2]);
+        if (fields.length == 4) {
+          ENTRIES.put(nodeName, new Entry(fields[1], null, domain, timestamp, null));
+          NodeLabelMgr.nodeLabels.put(nodeName, NodeLabelMgr.labelsOf(domain));
+          continue;
+        }
+        // the labels as computed, hostname templates included, so they do not change once resolved
+        List<String> names = new ArrayList<>(fields.length - 4);
+        List<LabelAtom> atoms = new ArrayList<>(fields.length - 4);
+        for (int i = 4; i < fields.length; i++) {
+          String name = unescape(fields[i]);
+          names.add(name);
+          atoms.add(jenkins.getLabelAtom(name));
+        }
+        ENTRIES.put(nodeName, new Entry(fields[1], null, domain, timestamp, names));
+        NodeLabelMgr.nodeLabels.put(nodeName, new InternedLabelSet(atoms));
+      }
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to read " + file, ex);
+    }
+    LOGGER.log(Level.FINE, "Loaded {0} saved node domains", ENTRIES.size());
+  }
+
+  /**
+   * Records the domain resolved for a node and the labels computed from it, scheduling a write if
+   * anything changed.
+   *
+   * @param nodeName name of the node
+   * @param hostValue host value the domain was resolved from
+   * @param domain resolved domain, null if the resolution failed
+   * @param labels labels computed from the domain and host name
+   */
+  static void record(
+      final String nodeName,
+      final String hostValue,
+      final String domain,
+      final Collection<LabelAtom> labels) {
+    if (domain == null) {
+      return;
+    }
+    Entry previous = ENTRIES.get(nodeName);
+    long now = System.currentTimeMillis();
+    if (previous != null
+        && previous.domain.equals(domain)
+        && sameLabels(previous.labels, labels)
+        && now - previous.timestamp < TimeUnit.SECONDS.toMillis(MAX_AGE) / 2) {
+      // most resolutions confirm the saved entry, compare host values before digesting one
+      if (hostValue.equals(previous.hostValue)) {
+        return;
+      }
+      if (previous.fingerprint.equals(fingerprint(hostValue))) {
+        Entry confirmed =
+            new Entry(previous.fingerprint, hostValue, domain, previous.timestamp, previous.labels);
+        ENTRIES.replace(nodeName, previous, confirmed);
+        return;
+      }
+    }
+    List<String> names = new ArrayList<>(labels.size());
+    for (LabelAtom label : labels) {
+      names.add(label.getName());
+    }
+    ENTRIES.put(nodeName, new Entry(fingerprint(hostValue), hostValue, domain, now, names));
+    scheduleFlush();
+  }
+
+  /**
+   * Whether the saved label names are those of the labels, in the same order.
+   *
+   * @param names saved names, null for entries saved without labels
+   * @param labels the labels
+   * @return true if they are the same
+   */
+  private static boolean sameLabels(final List<String> names, final Collection<LabelAtom> labels) {
+    if (names == null || names.size() != labels.size()) {
+      return false;
+    }
+    Iterator<String> name = names.iterator();
+    for (LabelAtom label : labels) {
+      if (!label.getName().equals(name.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The saved entry of a node.
+   *
+   * @param nodeName name of the node
+   * @return the entry or null
+   */
+  static Entry get(final String nodeName) {
+    return ENTRIES.get(nodeName);
+  }
+
+  /**
+   * Forgets the entry of a node.
+   *
+   * @param nodeName name of the node
+   */
+  static void remove(final String nodeName) {
+    if (ENTRIES.remove(nodeName) != null) {
+      scheduleFlush();
+    }
+  }
+
+  /**
+   * Forgets the entries of every node not in the given names.
+   *
+   * @param nodeNames names of the nodes to keep
+   */
+  static void retainAll(final Set<String> nodeNames) {
+    if (ENTRIES.keySet().retainAll(nodeNames)) {
+      scheduleFlush();
+    }
+  }
+
+  /**
+   * Fingerprint of a host value, so the file does not list host names.
+   *
+   * @param hostValue whatever you have for the host. ip, name, fqdn
+   * @return fingerprint
+   */
+  static String fingerprint(final String hostValue) {
+    return Util.getDigestOf(hostValue).substring(0, 16);
+  }
+
+  /**
+   * Escapes the characters that would break a line of the file.
+   *
+   * @param field a node name, a domain or a label
+   * @return the field without tabs or line breaks
+   */
+  static String escape(final String field) {
+    StringBuilder escaped = null;
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      String replacement;
+      switch (c) {
+        case '\\':
+          replacement = "\\\\";
+          break;
+        case '\t':
+          replacement = "\\t";
+          break;
+        case '\n':
+          replacement = "\\n";
+          break;
+        case '\r':
+          replacement = "\\r";
+          break;
+        default:
+          if (escaped != null) {
+            escaped.append(c);
+          }
+          continue;
+      }
+      if (escaped == null) {
+        escaped = new StringBuilder(field.length() + 8).append(field, 0, i);
+      }
+      escaped.append(replacement);
+    }
+    return escaped == null ? field : escaped.toString();
+  }
+
+  /**
+   * Reverses {@link #escape}.
+   *
+   * @param field an escaped field
+   * @return the field as it was before being escaped
+   */
+  static String unescape(final String field) {
+    if (field.indexOf('\\') < 0) {
+      return field;
+    }
+    StringBuilder unescaped = new StringBuilder(field.length());
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      if (c != '\\' || i + 1 == field.length()) {
+        unescaped.append(c);
+        continue;
+      }
+      char next = field.charAt(++i);
+      switch (next) {
+        case 't':
+          unescaped.append('\t');
+          break;
+        case 'n':
+          unescaped.append('\n');
+          break;
+        case 'r':
+          unescaped.append('\r');
+          break;
+        default:
+          unescaped.append(next);
+          break;
+      }
+    }
+    return unescaped.toString();
+  }
+
+  /** Writes the entries after a short delay, once for all the changes made meanwhile. */
+  private static void scheduleFlush() {
+    if (FLUSH_SCHEDULED.compareAndSet(false, true)) {
+      Timer.get().schedule(PersistentLabelCache::flush, FLUSH_DELAY, TimeUnit.SECONDS);
+    }
+  }
+
+  /** Atomically replaces the file with the current entries. */
+  static void flush() {
+    FLUSH_SCHEDULED.set(false);
+    File file = getFile();
+    if (file == null) {
+      return;
+    }
+    try {
+      AtomicFileWriter writer = new AtomicFileWriter(file.toPath(), StandardCharsets.UTF_8);
+      try {
+        for (Map.Entry<String, Entry> entry : ENTRIES.entrySet()) {
+          Entry value = entry.getValue();
+          StringBuilder line =
+              new StringBuilder(escape(entry.getKey()))
+                  .append('\t')
+                  .append(value.fingerprint)
+                  .append('\t')
+                  .append(escape(value.domain))
+                  .append('\t')
+                  .append(value.timestamp);
+          if (value.labels != null) {
+            for (String label : value.labels) {
+              line.append('\t').append(escape(label));
+            }
+          }
+          writer.write(line.append('\n').toString());
+        }
+        writer.commit();
+      } finally {
+        writer.abort();
+      }
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to write " + file, ex);
+    }
+  }
+
+  /**
+   * The cache file.
+   *
+   * @return the file or null when Jenkins is not running
+   */
+  private static File getFile() {
+    final Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) {
+      return null;
+    }
+    return new File(jenkins.getRootDir(), FILE_NAME);
+  }
+}
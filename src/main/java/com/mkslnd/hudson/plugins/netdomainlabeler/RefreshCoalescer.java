@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.model.labels.LabelAtom;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.util.Timer;
+
+/**
+ * Collects the new labels of nodes over a short window, then stores them and refreshes the label
+ * model once for all of them instead of once per node.
+ */
+final class RefreshCoalescer {
+  /** Milliseconds new labels are collected before being applied. */
+  private final long window;
+  /** Labels waiting to be applied by node name, the latest offer wins. */
+  private final ConcurrentMap<String, Collection<LabelAtom>> pending = new ConcurrentHashMap<>();
+  /** Whether a flush is already scheduled. */
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  /** Refreshes requested. */
+  private final AtomicLong requested = new AtomicLong();
+  /** Refreshes merged into the label model update of another one. */
+  private final AtomicLong merged = new AtomicLong();
+
+  /**
+   * Creates a coalescer.
+   *
+   * @param window milliseconds new labels are collected before being applied
+   */
+  RefreshCoalescer(final long window) {
+    this.window = window;
+  }
+
+  /**
+   * Queues new labels for a node, to be applied with the others at the end of the window.
+   *
+   * @param nodeName name of the node
+   * @param labels its new labels
+   */
+  void offer(final String nodeName, final Collection<LabelAtom> labels) {
+    requested.incrementAndGet();
+    if (pending.put(nodeName, labels) != null) {
+      // the labels offered earlier in the window are replaced, never applied on their own
+      merged.incrementAndGet();
+    }
+    if (scheduled.compareAndSet(false, true)) {
+      Timer.get().schedule(this::flush, window, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Drops the pending labels of a node.
+   *
+   * @param nodeName name of the node
+   */
+  void cancel(final String nodeName) {
+    pending.remove(nodeName);
+  }
+
+  /** Applies all the pending labels and refreshes the labels that changed, once. */
+  void flush() {
+    scheduled.set(false);
+    Map<String, Collection<LabelAtom>> batch = new HashMap<>();
+    for (String nodeName : pending.keySet()) {
+      Collection<LabelAtom> labels = pending.remove(nodeName);
+      if (labels != null) {
+        batch.put(nodeName, labels);
+      }
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    Set<LabelAtom> affected = new HashSet<>();
+    NodeLabelMgr.publish(batch, affected);
+    NodeLabelMgr.refreshLabels(affected);
+    merged.addAndGet(batch.size() - 1);
+  }
+
+  /**
+   * Number of refreshes requested.
+   *
+   * @return refreshes requested
+   */
+  long getRequested() {
+    return requested.get();
+  }
+
+  /**
+   * Number of refreshes merged into another one's label model update: those replaced by a later
+   * offer for the same node, and all but one of those applied together. Cancelled refreshes are
+   * not counted.
+   *
+   * @return refreshes merged
+   */
+  long getMerged() {
+    return merged.get();
+  }
+}
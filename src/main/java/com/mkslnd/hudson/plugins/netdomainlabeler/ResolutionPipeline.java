@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs domain resolutions in the background so that the thread bringing an agent online never
+ * waits for DNS, on the executor of the configured {@link ExecutorMode}.
+ */
+final class ResolutionPipeline {
+  /** Logging of issues. */
+  private static final transient Logger LOGGER =
+      Logger.getLogger(ResolutionPipeline.class.getName());
+  /** Runs the resolutions. */
+  private final Executor executor;
+  /** How the resolutions are run. */
+  private final ExecutorMode mode;
+  /** Keys of the resolutions waiting in the queue, a key is queued at most once. */
+  private final Set<String> queued = ConcurrentHashMap.newKeySet();
+  /** Resolutions submitted and not finished yet. */
+  private final AtomicInteger inFlight = new AtomicInteger();
+  /** Maximum number of resolutions submitted and not finished. */
+  private final int limit;
+
+  /**
+   * Creates a pipeline on a bounded pool.
+   *
+   * @param workers maximum number of concurrent resolutions
+   * @param capacity maximum number of resolutions waiting for a worker
+   */
+  ResolutionPipeline(final int workers, final int capacity) {
+    this(ExecutorMode.BOUNDED, workers, capacity);
+  }
+
+  /**
+   * Creates the pipeline.
+   *
+   * @param mode how resolutions are run
+   * @param workers maximum number of concurrent resolutions of a bounded pool
+   * @param capacity maximum number of resolutions waiting for a worker
+   */
+  ResolutionPipeline(final ExecutorMode mode, final int workers, final int capacity) {
+    this.mode = mode;
+    this.executor = mode.pipeline("NetDomainLabeler resolver", workers, capacity);
+    this.limit = workers + capacity;
+  }
+
+  /**
+   * Queues a resolution unless one for the same key is already waiting.
+   *
+   * @param key identifies what is resolved, usually the node name
+   * @param task the resolution
+   * @return false if the queue is full and the resolution was dropped
+   */
+  boolean submit(final String key, final Runnable task) {
+    if (!queued.add(key)) {
+      return true;
+    }
+    if (inFlight.incrementAndGet() > limit) {
+      return reject(key);
+    }
+    try {
+      executor.execute(
+          () -> {
+            queued.remove(key);
+            try {
+              task.run();
+            } catch (RuntimeException ex) {
+              LOGGER.log(Level.WARNING, "Domain resolution failed for " + key, ex);
+            } finally {
+              inFlight.decrementAndGet();
+            }
+          });
+      return true;
+    } catch (RejectedExecutionException ex) {
+      return reject(key);
+    }
+  }
+
+  /**
+   * Drops a resolution that does not fit.
+   *
+   * @param key identifies what is resolved
+   * @return false
+   */
+  private boolean reject(final String key) {
+    inFlight.decrementAndGet();
+    queued.remove(key);
+    LOGGER.log(Level.WARNING, "Resolution queue is full, dropping {0}", key);
+    return false;
+  }
+
+  /**
+   * Number of resolutions waiting for a worker.
+   *
+   * @return backlog size
+   */
+  int getBacklog() {
+    return queued.size();
+  }
+
+  /**
+   * Number of resolutions submitted and not finished yet.
+   *
+   * @return resolutions in flight
+   */
+  int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * How resolutions are run.
+   *
+   * @return the mode
+   */
+  ExecutorMode getMode() {
+    return mode;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+import org.kohsuke.args4j.Option;
+
+/**
+ * {@code resolve-domains} CLI command, resolving the labels of selected agents again without
+ * reconnecting them and printing the old and new domain of each.
+ */
+@Extension
+public class ResolveDomainsCommand extends CLICommand {
+  /** Milliseconds between two reads of the progress. */
+  private static final long POLL_INTERVAL = 500;
+
+  @Option(name = "--nodes", metaVar = "PATTERN", usage = "Node name pattern, * matching anything")
+  public String nodes;
+
+  @Option(name = "--label", metaVar = "EXPRESSION", usage = "Label expression the nodes match")
+  public String label;
+
+  @Option(name = "--domain", metaVar = "DOMAIN", usage = "Domain the nodes are labeled with")
+  public String domain;
+
+  @Option(name = "--detach", usage = "Return once started instead of printing the progress")
+  public boolean detach;
+
+  @Override
+  public String getShortDescription() {
+    return "Resolves the domain labels of online agents again, in rate limited batches.";
+  }
+
+  @Override
+  protected int run() throws Exception {
+    Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+    BulkResolution resolution = BulkResolution.start(nodes, label, domain);
+    if (detach) {
+      stdout.println(
+          "Resolving "
+              + resolution.getTotal()
+              + " nodes in the background, see Manage Jenkins > Resolve Agent Domains");
+      return 0;
+    }
+    // the resolution goes on if the client disconnects
+    int from = 0;
+    while (true) {
+      boolean finished = resolution.isFinished();
+      for (String line : resolution.getLines(from)) {
+        stdout.println(line);
+        from++;
+      }
+      if (finished) {
+        return 0;
+      }
+      Thread.sleep(POLL_INTERVAL);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+/** When the domain of a host value is resolved through DNS instead of read from the value. */
+public enum ReverseLookupPolicy {
+  /** Always resolve, even fully qualified names. */
+  ALWAYS("Always resolve through DNS"),
+  /** Read the domain of fully qualified names, resolve IP literals and short names. */
+  UNQUALIFIED("Only for IP addresses and short names"),
+  /** Never resolve, IP literals only get a domain from the IP range table. */
+  NEVER("Never, use the IP range table for IP addresses");
+
+  /** Shown in the configuration page. */
+  private final String description;
+
+  ReverseLookupPolicy(final String description) {
+    this.description = description;
+  }
+
+  /**
+   * Shown in the configuration page.
+   *
+   * @return the description
+   */
+  public String getDescription() {
+    return description;
+  }
+}
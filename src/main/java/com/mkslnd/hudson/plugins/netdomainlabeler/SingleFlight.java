@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 guybrush.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs at most one computation per key at a time. Callers arriving while a computation for their
+ * key is in flight wait for it and share its result instead of starting their own.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+final class SingleFlight<K, V> {
+  /**
+   * A computation that may block on I/O.
+   *
+   * @param <V> result type
+   */
+  interface Computation<V> {
+    /**
+     * Computes the value.
+     *
+     * @return the value
+     * @throws IOException on I/O error
+     * @throws InterruptedException on thread interruption
+     */
+    V compute() throws IOException, InterruptedException;
+  }
+
+  /** Results of the computations in flight. */
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  /** Number of computations actually run. */
+  private final AtomicLong executed = new AtomicLong();
+  /** Number of callers that got the result of another caller's computation. */
+  private final AtomicLong shared = new AtomicLong();
+
+  /**
+   * Runs the computation, or waits for the one already in flight for the key.
+   *
+   * <p>When the caller running the computation is interrupted, it gets the {@link
+   * InterruptedException} with its interrupt status cleared, as from any blocking call, and the
+   * callers waiting for it get an {@link InterruptedIOException} rather than the interruption of
+   * another thread.
+   *
+   * @param key what is computed
+   * @param computation how to compute it
+   * @return the result
+   * @throws InterruptedIOException when the shared computation was cancelled
+   * @throws IOException on I/O error, also when the shared computation failed
+   * @throws InterruptedException on thread interruption
+   */
+  V run(final K key, final Computation<V> computation) throws IOException, InterruptedException {
+    CompletableFuture<V> mine = new CompletableFuture<>();
+    CompletableFuture<V> theirs = inFlight.putIfAbsent(key, mine);
+    if (theirs != null) {
+      shared.incrementAndGet();
+      return await(key, theirs);
+    }
+    executed.incrementAndGet();
+    try {
+      V value = computation.compute();
+      mine.complete(value);
+      return value;
+    } catch (InterruptedException ex) {
+      mine.cancel(false);
+      throw ex;
+    } catch (Throwable t) {
+      mine.completeExceptionally(t);
+      throw t;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  /**
+   * Waits for a computation started by another caller.
+   *
+   * @param key what is computed
+   * @param future result of the computation
+   * @return the result
+   */
+  private static <K, V> V await(final K key, final CompletableFuture<V> future)
+      throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (CancellationException ex) {
+      throw new InterruptedIOException("Computation of " + key + " was cancelled");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw new IllegalStateException(cause.getMessage(), cause);
+      }
+      throw new IOException(cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * Number of computations actually run.
+   *
+   * @return computations run
+   */
+  long getExecuted() {
+    return executed.get();
+  }
+
+  /**
+   * Number of computations saved because the caller shared one already in flight.
+   *
+   * @return computations saved
+   */
+  long getShared() {
+    return shared.get();
+  }
+}
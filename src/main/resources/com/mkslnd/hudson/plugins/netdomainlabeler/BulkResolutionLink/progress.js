@@ -0,0 +1,40 @@
+(function () {
+    function start() {
+        var from = 0;
+        var status = document.getElementById("netdomain-status");
+        var progress = document.getElementById("netdomain-progress");
+        function poll() {
+            fetch("progress?from=" + from, {credentials: "same-origin"})
+                .then(function (rsp) {
+                    if (!rsp.ok) {
+                        throw new Error("HTTP " + rsp.status);
+                    }
+                    return rsp.json();
+                })
+                .then(function (json) {
+                    json.lines.forEach(function (line) {
+                        progress.appendChild(document.createTextNode(line + "\n"));
+                    });
+                    from += json.lines.length;
+                    if (json.total !== undefined) {
+                        status.textContent = json.done + " / " + json.total
+                            + (json.finished ? "" : " ...");
+                    }
+                    if (!json.finished) {
+                        setTimeout(poll, 1000);
+                    }
+                })
+                .catch(function (error) {
+                    // Jenkins restarting, session expired or network down: keep trying
+                    status.textContent = "Progress unavailable (" + error.message + "), retrying ...";
+                    setTimeout(poll, 5000);
+                });
+        }
+        poll();
+    }
+    if (document.readyState === "loading") {
+        document.addEventListener("DOMContentLoaded", start);
+    } else {
+        start();
+    }
+})();
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import org.junit.Test;
+
+public class AddressPreferenceTest {
+
+  private final InetAddress ipv4 = address("10.0.0.1");
+  private final InetAddress lab = address("10.20.0.5");
+  private final InetAddress ipv6 = address("fd00::1");
+  private final InetAddress[] addresses = {ipv6, ipv4, lab};
+
+  @Test
+  public void testIpv4First() {
+    assertThat(AddressPreference.parse(null).sort(addresses), is(arrayContaining(ipv4, lab, ipv6)));
+    assertThat(AddressPreference.parse("IPv4"), is(sameInstance(AddressPreference.IPV4)));
+  }
+
+  @Test
+  public void testIpv6First() {
+    assertThat(
+        AddressPreference.parse(" ipv6 ").sort(addresses), is(arrayContaining(ipv6, ipv4, lab)));
+  }
+
+  @Test
+  public void testSubnetFirst() {
+    AddressPreference preference = AddressPreference.parse("10.20.0.0/16");
+    assertThat(preference.sort(addresses), is(arrayContaining(lab, ipv4, ipv6)));
+    assertThat(preference.rank(lab), is(0));
+    assertThat(preference.rank(ipv6), is(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownFamily() {
+    AddressPreference.parse("ipv5");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddressWithoutPrefix() {
+    AddressPreference.parse("10.0.0.0");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadPrefixLength() {
+    AddressPreference.parse("10.0.0.0/33");
+  }
+
+  private static InetAddress address(final String literal) {
+    try {
+      return InetAddress.getByName(literal);
+    } catch (UnknownHostException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.cli.CLICommandInvoker;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Slave.SlaveDescriptor;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.SlaveComputer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+public class BulkResolutionTest {
+
+  @Rule public JenkinsRule r = new JenkinsRule();
+
+  @Test
+  public void testDiff() {
+    LabelAtom eu = new LabelAtom("eu.example.com");
+    LabelAtom us = new LabelAtom("us.example.com");
+    LabelAtom corp = new LabelAtom("example.com");
+    assertThat(
+        BulkResolution.diff(
+            "build1",
+            "eu.example.com",
+            "us.example.com",
+            Arrays.asList(eu, corp),
+            Arrays.asList(us, corp)),
+        is("build1: eu.example.com -> us.example.com +us.example.com -eu.example.com"));
+    assertThat(
+        BulkResolution.diff("build2", null, "eu.example.com", null, Collections.singleton(eu)),
+        is("build2: no domain -> eu.example.com +eu.example.com"));
+    assertThat(
+        BulkResolution.diff(
+            "build3", "eu.example.com", "eu.example.com", null, Collections.emptyList()),
+        is("build3: eu.example.com unchanged"));
+  }
+
+  @Test
+  public void testSelect() {
+    assertThat(BulkResolution.select(null, " ", null), hasSize(1));
+    assertThat(BulkResolution.select("nomatch-*", null, null), is(empty()));
+    assertThat(BulkResolution.select(null, "nomatch", null), is(empty()));
+    // a domain typed in the form does not become a label of Jenkins
+    assertThat(BulkResolution.select(null, null, "nowhere.example.com"), is(empty()));
+    assertThat(r.jenkins.getLabels(), not(hasItem(hasProperty("name", is("nowhere.example.com")))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSelectBadLabelExpression() {
+    BulkResolution.select(null, "linux&&", null);
+  }
+
+  @Test
+  public void testResolvesInTheBackground() throws Exception {
+    List<String> lines = resolve(null);
+    assertThat(lines.get(0), is("Resolving 1 nodes, online"));
+    assertThat(lines.get(lines.size() - 1), startsWith("Resolved 1 of 1 nodes"));
+  }
+
+  @Test
+  public void testReportsDomainChanges() throws Exception {
+    AtomicReference<String> domain = new AtomicReference<>("eu.example.com");
+    NodeLabelMgr.setResolver(
+        new HostResolver() {
+          @Override
+          public InetAddress forward(final String host) throws UnknownHostException {
+            return InetAddress.getByAddress(host, new byte[] {10, 0, 0, 1});
+          }
+
+          @Override
+          public String reverse(final InetAddress address) {
+            return "bulk1." + domain.get();
+          }
+        });
+    NamedAgent agent = new NamedAgent("bulk1", r.createComputerLauncher(null));
+    try {
+      r.jenkins.addNode(agent);
+      r.waitOnline(agent);
+      // labeled once in the background on connection
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+      while (NodeLabelMgr.nodeLabels.get("bulk1") == null && System.nanoTime() < deadline) {
+        Thread.sleep(100);
+      }
+      assertThat(resolve("bulk1"), hasItem(startsWith("bulk1: eu.example.com unchanged")));
+
+      domain.set("us.example.com");
+      List<String> lines = resolve("bulk1");
+      String diff = "bulk1: eu.example.com -> us.example.com +us.example.com -eu.example.com";
+      assertThat(lines, hasItem(diff));
+      assertThat(lines.get(lines.size() - 1), is("Resolved 1 of 1 nodes, 1 changed"));
+      assertThat(
+          NodeLabelMgr.nodeLabels.get("bulk1"), hasItem(r.jenkins.getLabelAtom("us.example.com")));
+    } finally {
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+      PersistentLabelCache.remove("bulk1");
+    }
+  }
+
+  /**
+   * Runs a bulk resolution to its end.
+   *
+   * @param nodes node name pattern, null for any
+   * @return the progress lines
+   */
+  private static List<String> resolve(final String nodes) throws InterruptedException {
+    BulkResolution resolution = BulkResolution.start(nodes, null, null);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while (!resolution.isFinished() && System.nanoTime() < deadline) {
+      Thread.sleep(100);
+    }
+    List<String> lines = resolution.getLines(0);
+    assertThat(resolution.getLines(lines.size()), is(empty()));
+    return lines;
+  }
+
+  @Test
+  public void testCommand() throws Exception {
+    CLICommandInvoker.Result result =
+        new CLICommandInvoker(r, "resolve-domains").invokeWithArgs("--nodes", "nomatch-*");
+    assertThat(result.returnCode(), is(0));
+    assertThat(result.stdout(), containsString("Resolved 0 of 0 nodes"));
+  }
+
+  /** Agent with a fixed host value, so that tests do not depend on the network of the machine. */
+  public static class NamedAgent extends DumbSlave {
+    public NamedAgent(final String name, final ComputerLauncher launcher)
+        throws Descriptor.FormException, IOException {
+      super(name, Files.createTempDirectory(name).toString(), launcher);
+    }
+
+    @Override
+    public Computer createComputer() {
+      return new SlaveComputer(this) {
+        @Override
+        public String getHostName() {
+          return getName();
+        }
+      };
+    }
+
+    @TestExtension("testReportsDomainChanges")
+    public static class DescriptorImpl extends SlaveDescriptor {}
+  }
+}
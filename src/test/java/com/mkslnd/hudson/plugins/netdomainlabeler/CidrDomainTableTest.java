@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class CidrDomainTableTest {
+
+  private final CidrDomainTable table =
+      CidrDomainTable.parse(
+          "# sites\n"
+              + "10.0.0.0/8 corp.example.com\n"
+              + "10.20.0.0/16 eu.corp.example.com\n"
+              + "10.20.30.40 special.example.com\n"
+              + "\n"
+              + "2001:db8::/32 v6.example.com\n");
+
+  @Test
+  public void testLongestPrefixWins() {
+    assertThat(table.lookup(CidrDomainTable.literalAddress("10.1.2.3")), is("corp.example.com"));
+    assertThat(
+        table.lookup(CidrDomainTable.literalAddress("10.20.1.2")), is("eu.corp.example.com"));
+    assertThat(
+        table.lookup(CidrDomainTable.literalAddress("10.20.30.40")), is("special.example.com"));
+  }
+
+  @Test
+  public void testIpv6() {
+    assertThat(table.lookup(CidrDomainTable.literalAddress("2001:db8::1")), is("v6.example.com"));
+    assertThat(table.lookup(CidrDomainTable.literalAddress("2001:db9::1")), is(nullValue()));
+  }
+
+  @Test
+  public void testNoMatch() {
+    assertThat(table.lookup(CidrDomainTable.literalAddress("192.168.1.1")), is(nullValue()));
+    assertThat(CidrDomainTable.EMPTY.lookup(new byte[4]), is(nullValue()));
+  }
+
+  @Test
+  public void testOnlyRangesAndBranchesAreKept() {
+    // the root, the four ranges and the branch between the IPv4 and IPv6 ranges
+    assertThat(table.size(), is(6));
+    CidrDomainTable hosts =
+        CidrDomainTable.parse("::/0 any.example.com\n2001:db8::1/128 host.example.com\n");
+    assertThat(hosts.size(), is(2));
+    assertThat(hosts.lookup(CidrDomainTable.literalAddress("2001:db8::1")), is("host.example.com"));
+    assertThat(hosts.lookup(CidrDomainTable.literalAddress("2001:db8::3")), is("any.example.com"));
+  }
+
+  @Test
+  public void testNamesAreNotLiterals() {
+    assertThat(CidrDomainTable.literalAddress("build1.example.com"), is(nullValue()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadPrefixLength() {
+    CidrDomainTable.parse("10.0.0.0/33 corp.example.com");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingDomain() {
+    CidrDomainTable.parse("10.0.0.0/8");
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private final CircuitBreaker breaker = new CircuitBreaker(3, 30, now::get);
+
+  private void fail(int times) {
+    for (int i = 0; i < times; i++) {
+      assertThat(breaker.allowRequest(), is(true));
+      breaker.recordFailure();
+    }
+  }
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    fail(2);
+    breaker.recordSuccess();
+    fail(2);
+    assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    fail(1);
+    assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+    assertThat(breaker.allowRequest(), is(false));
+    assertThat(breaker.getRejected(), is(1L));
+  }
+
+  @Test
+  public void testHalfOpenLetsOneProbeThrough() {
+    fail(3);
+    now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+    assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.allowRequest(), is(false));
+  }
+
+  @Test
+  public void testFailedProbeReopens() {
+    fail(3);
+    now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+    fail(1);
+    assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(29));
+    assertThat(breaker.allowRequest(), is(false));
+  }
+
+  @Test
+  public void testSuccessfulProbeCloses() {
+    fail(3);
+    now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+    assertThat(breaker.allowRequest(), is(true));
+    breaker.recordSuccess();
+    assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    assertThat(breaker.allowRequest(), is(true));
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DnsClientTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private StubDnsServer server;
+  private DnsClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StubDnsServer(50);
+    server.addresses.put("build1.eu.example.com", new byte[] {10, 0, 0, 1});
+    server.pointers.put("1.0.0.10.in-addr.arpa", "build1.eu.example.com");
+    client = new DnsClient(server.getAddress(), 1000, 2, 512, 10000, now::get);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.close();
+  }
+
+  @Test
+  public void testForward() throws Exception {
+    InetAddress address = client.forward("build1.eu.example.com");
+    assertThat(address.getHostAddress(), is("10.0.0.1"));
+    // no PTR query for an address resolved from a name
+    assertThat(client.reverse(address), is("build1.eu.example.com"));
+    // A and AAAA
+    assertThat(server.udpQueries.get(), is(2));
+  }
+
+  @Test
+  public void testForwardAllDualStack() throws Exception {
+    byte[] ipv6 = InetAddress.getByName("fd00::1").getAddress();
+    server.ipv6Addresses.put("build1.eu.example.com", ipv6);
+    InetAddress[] addresses = client.forwardAll("build1.eu.example.com");
+    assertThat(addresses.length, is(2));
+    assertThat(addresses[0].getHostAddress(), is("10.0.0.1"));
+    assertThat(addresses[1].getAddress(), is(ipv6));
+  }
+
+  @Test
+  public void testReverse() throws Exception {
+    InetAddress address = client.forward("10.0.0.1");
+    assertThat(client.reverse(address), is("build1.eu.example.com"));
+    assertThat(client.reverse(InetAddress.getByAddress(new byte[] {10, 0, 0, 2})), is("10.0.0.2"));
+  }
+
+  @Test(expected = UnknownHostException.class)
+  public void testNxdomain() throws Exception {
+    client.forward("missing.example.com");
+  }
+
+  @Test
+  public void testAnswersLiveForTheirTtl() throws Exception {
+    server.ttl = 60;
+    client.forward("build1.eu.example.com");
+    now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    client.forward("build1.eu.example.com");
+    // the empty AAAA answer is cached as well
+    assertThat(server.udpQueries.get(), is(2));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+    client.forward("build1.eu.example.com");
+    assertThat(server.udpQueries.get(), is(4));
+  }
+
+  @Test
+  public void testTruncatedAnswerIsAskedOverTcp() throws Exception {
+    server.truncated.add("build1.eu.example.com");
+    assertThat(client.forward("build1.eu.example.com").getHostAddress(), is("10.0.0.1"));
+    assertThat(server.tcpQueries.get(), is(2));
+  }
+
+  @Test
+  public void testLostQueryIsSentAgain() throws Exception {
+    server.dropOnce.add("build1.eu.example.com");
+    assertThat(client.forward("build1.eu.example.com").getHostAddress(), is("10.0.0.1"));
+    // A and AAAA, then the one dropped again
+    assertThat(server.udpQueries.get(), is(3));
+  }
+
+  @Test
+  public void testQueriesArePipelined() throws Exception {
+    int agents = 500;
+    for (int i = 0; i < agents; i++) {
+      server.addresses.put(
+          "agent" + i + ".example.com", new byte[] {10, 1, (byte) (i >> 8), (byte) i});
+    }
+    long start = System.nanoTime();
+    List<CompletableFuture<DnsClient.Response>> answers = new ArrayList<>();
+    for (int i = 0; i < agents; i++) {
+      answers.add(client.query("agent" + i + ".example.com", DnsClient.A));
+    }
+    CompletableFuture.allOf(answers.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    for (CompletableFuture<DnsClient.Response> answer : answers) {
+      assertThat(answer.get().answers, hasSize(1));
+    }
+    // one at a time it would take agents * 50 ms
+    assertThat(elapsed, is(lessThan(5000L)));
+    // spread over several source ports
+    assertThat(server.sourcePorts.size(), is(greaterThan(1)));
+  }
+
+  @Test
+  public void testEncodeQuery() {
+    DnsClient.Response query =
+        DnsClient.parse(DnsClient.encodeQuery(4242, "build1.example.com.", DnsClient.AAAA));
+    assertThat(query.id, is(4242));
+    assertThat(query.response, is(false));
+    assertThat(query.questionName, is("build1.example.com"));
+    assertThat(query.questionType, is(DnsClient.AAAA));
+  }
+
+  @Test
+  public void testReverseName() {
+    assertThat(DnsClient.reverseName(new byte[] {10, 0, 0, 1}), is("1.0.0.10.in-addr.arpa"));
+    byte[] ipv6 = new byte[16];
+    ipv6[0] = 0x20;
+    ipv6[1] = 0x01;
+    ipv6[15] = 0x1f;
+    assertThat(
+        DnsClient.reverseName(ipv6),
+        is("f.1." + String.join("", Collections.nCopies(26, "0.")) + "1.0.0.2.ip6.arpa"));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class DomainCacheTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private final AtomicInteger loads = new AtomicInteger();
+  private final DomainCache cache = new DomainCache(60, 5, 2, now::get);
+
+  private String load(String hostValue) {
+    loads.incrementAndGet();
+    return hostValue.startsWith("dead") ? null : "example.com";
+  }
+
+  @Test
+  public void testPositiveEntryExpires() {
+    assertThat(cache.get("build1", this::load), is("example.com"));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    assertThat(cache.get("build1", this::load), is("example.com"));
+    assertThat(loads.get(), is(1));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+    cache.get("build1", this::load);
+    assertThat(loads.get(), is(2));
+  }
+
+  @Test
+  public void testNegativeEntryHasOwnTtl() {
+    assertThat(cache.get("dead1", this::load), is(nullValue()));
+    assertThat(cache.get("dead1", this::load), is(nullValue()));
+    assertThat(loads.get(), is(1));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(6));
+    cache.get("dead1", this::load);
+    assertThat(loads.get(), is(2));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    cache.get("a", this::load);
+    cache.get("b", this::load);
+    cache.get("a", this::load);
+    cache.get("c", this::load);
+    assertThat(cache.size(), is(2));
+    cache.get("a", this::load);
+    assertThat(loads.get(), is(3));
+    cache.get("b", this::load);
+    assertThat(loads.get(), is(4));
+  }
+
+  @Test
+  public void testInvalidate() {
+    cache.get("a", this::load);
+    cache.invalidate("a");
+    cache.get("a", this::load);
+    assertThat(loads.get(), is(2));
+    cache.invalidateAll();
+    assertThat(cache.size(), is(0));
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.model.Computer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class DomainRevalidatorTest {
+
+  @Rule public JenkinsRule r = new JenkinsRule();
+
+  /** Names of the agent addresses. */
+  private final Map<String, String> names = new ConcurrentHashMap<>();
+  /** Reverse lookups made. */
+  private final AtomicInteger lookups = new AtomicInteger();
+  /** Reverse lookups in flight. */
+  private final AtomicInteger active = new AtomicInteger();
+  /** Most reverse lookups in flight at once. */
+  private final AtomicInteger peak = new AtomicInteger();
+  private final List<Computer> computers = new ArrayList<>();
+  /** Computer going offline while its domain is resolved, if any. */
+  private volatile SimulatedNode.SimulatedComputer goingOffline;
+
+  @Before
+  public void setUp() {
+    NodeLabelMgr.setResolver(
+        new HostResolver() {
+          @Override
+          public InetAddress forward(final String host) throws UnknownHostException {
+            return InetAddress.getByName(host);
+          }
+
+          @Override
+          public String reverse(final InetAddress address) {
+            lookups.incrementAndGet();
+            SimulatedNode.SimulatedComputer computer = goingOffline;
+            if (computer != null) {
+              computer.offline = true;
+            }
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+              Thread.sleep(20);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            } finally {
+              active.decrementAndGet();
+            }
+            return names.get(address.getHostAddress());
+          }
+        });
+    for (int i = 0; i < 5; i++) {
+      String address = "10.0.0." + (i + 1);
+      names.put(address, "reval-" + i + ".eu.example.com");
+      computers.add(new SimulatedNode("reval-" + i, address).computer);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    NodeLabelMgr.setResolver(HostResolver.JDK);
+    NodeLabelMgr.invalidateDomains();
+    for (Computer computer : computers) {
+      NodeLabelMgr.nodeLabels.remove(computer.getName());
+      PersistentLabelCache.remove(computer.getName());
+    }
+  }
+
+  @Test
+  public void testResolvesInBatches() throws Exception {
+    long start = System.nanoTime();
+    assertThat(DomainRevalidator.revalidate(computers, 2, 100), is(5));
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    // three batches, two pauses
+    assertThat(elapsed, is(greaterThanOrEqualTo(200L)));
+    assertThat(lookups.get(), is(5));
+    assertThat(peak.get(), is(lessThanOrEqualTo(2)));
+  }
+
+  @Test
+  public void testRelabelsOnlyChangedNodes() throws Exception {
+    assertThat(DomainRevalidator.revalidate(computers, 2, 0), is(5));
+    // every node is resolved again, none changed
+    assertThat(DomainRevalidator.revalidate(computers, 2, 0), is(0));
+    assertThat(lookups.get(), is(10));
+
+    names.put("10.0.0.3", "reval-2.us.example.com");
+    assertThat(DomainRevalidator.revalidate(computers, 2, 0), is(1));
+    assertThat(
+        NodeLabelMgr.nodeLabels.get("reval-2"), contains(r.jenkins.getLabelAtom("us.example.com")));
+    assertThat(
+        NodeLabelMgr.nodeLabels.get("reval-1"), contains(r.jenkins.getLabelAtom("eu.example.com")));
+  }
+
+  @Test
+  public void testSkipsNodesGoneOffline() throws Exception {
+    goingOffline = (SimulatedNode.SimulatedComputer) computers.get(0);
+    assertThat(DomainRevalidator.revalidate(computers, 5, 0), is(4));
+    assertThat(NodeLabelMgr.nodeLabels.get("reval-0"), is(nullValue()));
+    assertThat(
+        NodeLabelMgr.nodeLabels.get("reval-1"), contains(r.jenkins.getLabelAtom("eu.example.com")));
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.model.labels.LabelAtom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import org.junit.Test;
+
+public class DomainSuffixTrieTest {
+
+  @Test
+  public void testDepthZeroIsDomainOnly() {
+    DomainSuffixTrie trie = new DomainSuffixTrie(0);
+    assertThat(trie.lineageOf("eu.dc2.corp.example.com"), contains("eu.dc2.corp.example.com"));
+  }
+
+  @Test
+  public void testAncestorsDownToDepth() {
+    DomainSuffixTrie trie = new DomainSuffixTrie(2);
+    assertThat(
+        trie.lineageOf("eu.dc2.corp.example.com"),
+        contains("eu.dc2.corp.example.com", "dc2.corp.example.com", "corp.example.com"));
+  }
+
+  @Test
+  public void testStopsAtPublicSuffix() {
+    DomainSuffixTrie trie = new DomainSuffixTrie(10);
+    assertThat(trie.lineageOf("corp.example.com"), contains("corp.example.com", "example.com"));
+    assertThat(trie.lineageOf("eu.example.co.uk"), contains("eu.example.co.uk", "example.co.uk"));
+  }
+
+  @Test
+  public void testSameDomainSharesLineage() {
+    DomainSuffixTrie trie = new DomainSuffixTrie(2);
+    assertThat(
+        trie.lineageOf("eu.example.com"), is(sameInstance(trie.lineageOf("eu.example.com."))));
+  }
+
+  @Test
+  public void testKeepsTheCaseOfTheDomain() {
+    DomainSuffixTrie trie = new DomainSuffixTrie(0);
+    assertThat(trie.lineageOf("Corp.Example.COM"), contains("Corp.Example.COM"));
+    assertThat(trie.lineageOf("corp.example.com"), contains("corp.example.com"));
+    trie = new DomainSuffixTrie(10);
+    assertThat(trie.lineageOf("EU.Example.CO.UK."), contains("EU.Example.CO.UK", "Example.CO.UK"));
+  }
+
+  @Test
+  public void testTrimmedLabelsAreReplaced() {
+    Map<String, LabelAtom> known = new HashMap<>();
+    Function<String, LabelAtom> atoms = name -> known.computeIfAbsent(name, LabelAtom::new);
+    DomainSuffixTrie trie = new DomainSuffixTrie(1);
+    Set<LabelAtom> labels = trie.labelsOf("eu.example.com", atoms);
+    assertThat(trie.labelsOf("eu.example.com", atoms), is(sameInstance(labels)));
+
+    // Jenkins trims unused labels and creates new instances when they are used again
+    known.remove("example.com");
+    Set<LabelAtom> current = trie.labelsOf("eu.example.com", atoms);
+    assertThat(current, is(not(sameInstance(labels))));
+    for (LabelAtom atom : current) {
+      assertThat(atom, is(sameInstance(known.get(atom.getName()))));
+    }
+  }
+}
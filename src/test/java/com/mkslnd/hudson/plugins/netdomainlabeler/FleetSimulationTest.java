@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.model.TaskListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Brings a fleet of simulated agents online at once, resolving them through {@link
+ * SimulatedResolver}, and reports how long they take to get labeled. Runs offline.
+ *
+ * <p>The fleet size is set with {@code -Dnetdomain.fleet.size}.
+ */
+public class FleetSimulationTest {
+  private static final Logger LOGGER = Logger.getLogger(FleetSimulationTest.class.getName());
+  private static final int FLEET = Integer.getInteger("netdomain.fleet.size", 2000);
+
+  @Rule public JenkinsRule r = new JenkinsRule();
+
+  private SimulatedNode[] nodes = new SimulatedNode[0];
+
+  @After
+  public void tearDown() {
+    // the caches are static and the fork is reused by the next test classes
+    NetDomainLabelerConfiguration.get().setReverseLookupPolicy(ReverseLookupPolicy.UNQUALIFIED);
+    NodeLabelMgr.setResolver(HostResolver.JDK);
+    NodeLabelMgr.invalidateDomains();
+    for (SimulatedNode node : nodes) {
+      NodeLabelMgr.nodeLabels.remove(node.getNodeName());
+      NodeLabelMgr.INPUTS.remove(node.getNodeName());
+      PersistentLabelCache.remove(node.getNodeName());
+    }
+  }
+
+  @Test
+  public void testReconnectStorm() throws Exception {
+    SimulatedResolver resolver = new SimulatedResolver(5, 200, 0.01, 0.02);
+    NodeLabelMgr.setResolver(resolver);
+    // the simulated names are fully qualified, make them go through the resolver anyway
+    NetDomainLabelerConfiguration.get().setReverseLookupPolicy(ReverseLookupPolicy.ALWAYS);
+    NodeLabelMgr mgr = new NodeLabelMgr();
+    nodes = new SimulatedNode[FLEET];
+    for (int i = 0; i < FLEET; i++) {
+      nodes[i] = new SimulatedNode("sim-" + i, "sim-" + i + ".dc" + (i % 8) + ".example.com");
+    }
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService listeners = Executors.newFixedThreadPool(32);
+    long[] onlineAt = new long[FLEET];
+    try {
+      Future<?>[] fired = new Future<?>[FLEET];
+      for (int i = 0; i < FLEET; i++) {
+        final int index = i;
+        fired[i] =
+            listeners.submit(
+                () -> {
+                  start.await();
+                  onlineAt[index] = System.nanoTime();
+                  mgr.onOnline(nodes[index].computer, TaskListener.NULL);
+                  return null;
+                });
+      }
+      start.countDown();
+      for (Future<?> future : fired) {
+        future.get(1, TimeUnit.MINUTES);
+      }
+    } finally {
+      listeners.shutdown();
+    }
+
+    long[] labeledAfter = new long[FLEET];
+    int pending = FLEET;
+    long peakHeap = 0;
+    long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+    while (pending > 0 && System.nanoTime() < deadline) {
+      for (int i = 0; i < FLEET; i++) {
+        if (labeledAfter[i] == 0 && NodeLabelMgr.nodeLabels.get(nodes[i].getNodeName()) != null) {
+          labeledAfter[i] = Math.max(1, System.nanoTime() - onlineAt[i]);
+          pending--;
+        }
+      }
+      Runtime runtime = Runtime.getRuntime();
+      peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+      Thread.sleep(10);
+    }
+    assertThat("agents never resolved", pending, is(0));
+
+    Arrays.sort(labeledAfter);
+    LOGGER.log(
+        Level.INFO,
+        "{0} agents labeled after p50 {1} ms, p90 {2} ms, p99 {3} ms, max {4} ms;"
+            + " {5} lookups, peak {6} threads, peak heap {7} MB",
+        new Object[] {
+          FLEET,
+          percentile(labeledAfter, 50),
+          percentile(labeledAfter, 90),
+          percentile(labeledAfter, 99),
+          TimeUnit.NANOSECONDS.toMillis(labeledAfter[FLEET - 1]),
+          resolver.lookups.get(),
+          threads.getPeakThreadCount(),
+          peakHeap >> 20
+        });
+    assertThat(resolver.lookups.get(), is(lessThanOrEqualTo((long) FLEET)));
+  }
+
+  private static long percentile(long[] sorted, int percentile) {
+    int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+    return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class HostNamesTest {
+
+  @Test
+  public void testDomainOfFullyQualifiedName() {
+    assertThat(HostNames.domainOf("build1.eu.example.com"), is("eu.example.com"));
+    assertThat(HostNames.domainOf("build1.eu.example.com."), is("eu.example.com"));
+    assertThat(HostNames.domainOf("Build-1.Example.COM"), is("Example.COM"));
+    assertThat(HostNames.domainOf("42.dc2.example.com"), is("dc2.example.com"));
+  }
+
+  @Test
+  public void testNoDomainOfShortOrInvalidNames() {
+    assertThat(HostNames.domainOf("build1"), is(nullValue()));
+    assertThat(HostNames.domainOf(""), is(nullValue()));
+    assertThat(HostNames.domainOf("build1..example.com"), is(nullValue()));
+    assertThat(HostNames.domainOf("-build1.example.com"), is(nullValue()));
+    assertThat(HostNames.domainOf("build1.example-.com"), is(nullValue()));
+    assertThat(HostNames.domainOf("build_1.example.com"), is(nullValue()));
+    assertThat(HostNames.domainOf("build1.example.com:22"), is(nullValue()));
+  }
+
+  @Test
+  public void testNoDomainOfIpLiterals() {
+    assertThat(HostNames.domainOf("10.0.0.1"), is(nullValue()));
+    assertThat(HostNames.domainOf("10.0.0.1234"), is(nullValue()));
+    assertThat(HostNames.domainOf("fe80::1"), is(nullValue()));
+  }
+
+  @Test
+  public void testHostNames() {
+    assertThat(HostNames.isHostName("build1"), is(true));
+    assertThat(HostNames.isHostName("host1.example1.com."), is(true));
+    assertThat(HostNames.isHostName("Build-1.Example.COM"), is(true));
+    assertThat(HostNames.isHostName("10.0.0.1"), is(false));
+    assertThat(HostNames.isHostName("fe80::1"), is(false));
+    assertThat(HostNames.isHostName("eu.example.com && secret"), is(false));
+    assertThat(HostNames.isHostName("eu.example.com||prod"), is(false));
+    assertThat(HostNames.isHostName("build1..example.com"), is(false));
+    assertThat(HostNames.isHostName(""), is(false));
+    assertThat(HostNames.isHostName(null), is(false));
+  }
+
+  @Test
+  public void testIpLiterals() {
+    assertThat(HostNames.isIpLiteral("10.0.0.1"), is(true));
+    assertThat(HostNames.isIpLiteral("255.255.255.255"), is(true));
+    assertThat(HostNames.isIpLiteral("256.0.0.1"), is(false));
+    assertThat(HostNames.isIpLiteral("10.0.0"), is(false));
+    assertThat(HostNames.isIpLiteral("10.0.0.1."), is(false));
+    assertThat(HostNames.isIpLiteral("::1"), is(true));
+    assertThat(HostNames.isIpLiteral("2001:db8::8a2e:370:7334"), is(true));
+    assertThat(HostNames.isIpLiteral("[fe80::1%eth0]"), is(true));
+    assertThat(HostNames.isIpLiteral("::ffff:10.0.0.1"), is(true));
+    assertThat(HostNames.isIpLiteral("2001:db8::12345"), is(false));
+    assertThat(HostNames.isIpLiteral("build1.example.com"), is(false));
+  }
+}
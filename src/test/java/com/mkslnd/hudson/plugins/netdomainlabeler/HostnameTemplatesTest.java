@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.model.labels.LabelAtom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import org.junit.Test;
+
+public class HostnameTemplatesTest {
+
+  private final HostnameTemplates templates =
+      HostnameTemplates.parse(
+          "# racks\n"
+              + "ci-{region}-r{rack}-n{node}.* region-{region} rack-{region}-{rack}\n"
+              + "\n"
+              + "*.{site}.corp site-{site}");
+
+  @Test
+  public void testCaptures() {
+    assertThat(templates.apply("ci-eu1-r07-n12.corp"), contains("region-eu1", "rack-eu1-07"));
+    assertThat(
+        templates.apply("CI-EU1-R07-N12.lab.corp."),
+        contains("region-eu1", "rack-eu1-07", "site-lab"));
+  }
+
+  @Test
+  public void testLabelsKeepTheirCase() {
+    HostnameTemplates mixed =
+        HostnameTemplates.parse("CI-{Region}-* Region-{region} {REGION}-Zone");
+    assertThat(mixed.apply("ci-EU1-r07"), contains("Region-eu1", "eu1-Zone"));
+  }
+
+  @Test
+  public void testCapturesStayWithinALabel() {
+    assertThat(templates.apply("ci-eu1.lab-r07-n12.corp"), contains("site-lab-r07-n12"));
+    assertThat(templates.apply("build1.corp"), is(empty()));
+  }
+
+  @Test
+  public void testLabelsAreComputedOncePerHostName() {
+    Map<String, LabelAtom> known = new HashMap<>();
+    Function<String, LabelAtom> atoms = name -> known.computeIfAbsent(name, LabelAtom::new);
+    Set<LabelAtom> labels = templates.labelsOf("ci-eu1-r07-n12.corp", atoms);
+    assertThat(labels, hasSize(2));
+    assertThat(templates.labelsOf("ci-eu1-r07-n12.corp", atoms), is(sameInstance(labels)));
+    assertThat(HostnameTemplates.parse(" ").isEmpty(), is(true));
+
+    // labels trimmed by Jenkins are replaced by the instances it hands out now
+    known.clear();
+    Set<LabelAtom> current = templates.labelsOf("ci-eu1-r07-n12.corp", atoms);
+    assertThat(current, is(labels));
+    for (LabelAtom atom : current) {
+      assertThat(atom, is(sameInstance(known.get(atom.getName()))));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUndefinedCapture() {
+    HostnameTemplates.parse("{host}.corp rack-{rack}");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAdjacentCaptures() {
+    HostnameTemplates.parse("{region}{rack}.corp rack-{rack}");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOperatorInLabel() {
+    HostnameTemplates.parse("{host}.corp linux&&{host}");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingLabel() {
+    HostnameTemplates.parse("{host}.corp");
+  }
+}
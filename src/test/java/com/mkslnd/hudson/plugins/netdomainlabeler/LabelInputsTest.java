@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class LabelInputsTest {
+
+  private final LabelInputs inputs = new LabelInputs();
+
+  @Test
+  public void testUnknownNodeChanged() {
+    assertThat(inputs.settingsChanged("build1", "s1"), is(true));
+    assertThat(inputs.changed("build1", "build1.eu.example.com", "s1"), is(true));
+  }
+
+  @Test
+  public void testUnchangedInputs() {
+    inputs.record("build1", "build1.eu.example.com", "s1");
+    assertThat(inputs.settingsChanged("build1", "s1"), is(false));
+    assertThat(inputs.changed("build1", "build1.eu.example.com", "s1"), is(false));
+    assertThat(inputs.changed("build1", null, "s1"), is(false));
+    assertThat(inputs.getUnchanged(), is(2L));
+  }
+
+  @Test
+  public void testChangedHostValueOrSettings() {
+    inputs.record("build1", "build1.eu.example.com", "s1");
+    assertThat(inputs.changed("build1", "build1.us.example.com", "s1"), is(true));
+    assertThat(inputs.changed("build1", null, "s2"), is(true));
+    assertThat(inputs.settingsChanged("build1", "s2"), is(true));
+  }
+
+  @Test
+  public void testRemove() {
+    inputs.record("build1", "build1.eu.example.com", "s1");
+    inputs.remove("build1");
+    assertThat(inputs.size(), is(0));
+    assertThat(inputs.changed("build1", "build1.eu.example.com", "s1"), is(true));
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** {@link NetDomainLabeler#findLabels} over 10k cached nodes, alone and under concurrent writes. */
+@JmhBenchmark
+public class LabelStoreBenchmark {
+  /** Number of cached nodes. */
+  private static final int NODES = 10000;
+
+  /** Jenkins with the labels of 10k nodes cached. */
+  @State(Scope.Benchmark)
+  public static class CachedNodes extends JmhBenchmarkState {
+    /** The nodes, not attached to Jenkins since only their name is used. */
+    Node[] nodes = new Node[NODES];
+    /** Labels of the nodes, one of a few domains. */
+    Collection<LabelAtom>[] domains;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+      domains = new Collection[8];
+      for (int i = 0; i < domains.length; i++) {
+        domains[i] = NodeLabelMgr.labelsOf("dc" + i + ".example.com");
+      }
+      for (int i = 0; i < NODES; i++) {
+        nodes[i] = new DumbSlave("agent-" + i, "/tmp", new JNLPLauncher(false));
+        NodeLabelMgr.nodeLabels.put(nodes[i], domains[i % domains.length]);
+      }
+    }
+
+    @Override
+    public void tearDown() {
+      for (Node node : nodes) {
+        NodeLabelMgr.nodeLabels.remove(node);
+      }
+    }
+  }
+
+  /** The labeler, stateless. */
+  private final NetDomainLabeler labeler = new NetDomainLabeler();
+
+  @Benchmark
+  @Threads(8)
+  public void findLabels(final CachedNodes state, final Blackhole blackhole) {
+    Node node = state.nodes[ThreadLocalRandom.current().nextInt(NODES)];
+    blackhole.consume(labeler.findLabels(node));
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(7)
+  public void readWhileWriting(final CachedNodes state, final Blackhole blackhole) {
+    Node node = state.nodes[ThreadLocalRandom.current().nextInt(NODES)];
+    blackhole.consume(labeler.findLabels(node));
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(1)
+  public void writeWhileReading(final CachedNodes state) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Node node = state.nodes[random.nextInt(NODES)];
+    NodeLabelMgr.nodeLabels.put(node, state.domains[random.nextInt(state.domains.length)]);
+  }
+}
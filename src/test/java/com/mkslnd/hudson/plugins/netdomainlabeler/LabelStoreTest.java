@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.model.labels.LabelAtom;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class LabelStoreTest {
+
+  private final LabelStore store = new LabelStore();
+
+  @Test
+  public void testStoresSnapshot() {
+    Set<LabelAtom> labels = new HashSet<>(Arrays.asList(new LabelAtom("example.com")));
+    store.put("agent", labels);
+    labels.add(new LabelAtom("other.com"));
+    Collection<LabelAtom> stored = store.get("agent");
+    assertThat(stored, contains(new LabelAtom("example.com")));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSnapshotIsImmutable() {
+    store.put("agent", Arrays.asList(new LabelAtom("example.com")));
+    store.get("agent").add(new LabelAtom("other.com"));
+  }
+
+  @Test
+  public void testRetainAll() {
+    store.put("a", Arrays.asList(new LabelAtom("example.com")));
+    store.put("b", Arrays.asList(new LabelAtom("example.com")));
+    store.retainAll(new HashSet<>(Arrays.asList("b")));
+    assertThat(store.get("a"), is(nullValue()));
+    assertThat(store.get("b"), is(not(empty())));
+    assertThat(store.size(), is(1));
+  }
+
+  @Test
+  public void testOldestAreEvicted() {
+    LabelStore bounded = new LabelStore(32, nodeName -> true);
+    for (int i = 0; i < 33; i++) {
+      bounded.put("agent" + i, Arrays.asList(new LabelAtom("example.com")));
+    }
+    assertThat(bounded.size(), is(30));
+    assertThat(bounded.getEvictions(), is(3L));
+    for (int i = 0; i < 3; i++) {
+      assertThat(bounded.get("agent" + i), is(nullValue()));
+    }
+    for (int i = 3; i < 33; i++) {
+      assertThat(bounded.get("agent" + i), is(notNullValue()));
+    }
+  }
+
+  @Test
+  public void testOnlineNodesAreNotEvicted() {
+    Set<String> offline = new HashSet<>();
+    LabelStore bounded = new LabelStore(32, offline::contains);
+    for (int i = 0; i < 40; i++) {
+      bounded.put("online" + i, Arrays.asList(new LabelAtom("example.com")));
+    }
+    assertThat(bounded.size(), is(40));
+    assertThat(bounded.getEvictions(), is(0L));
+    for (int i = 0; i < 10; i++) {
+      offline.add("offline" + i);
+      bounded.put("offline" + i, Arrays.asList(new LabelAtom("example.com")));
+    }
+    assertThat(bounded.getEvictions(), is(greaterThan(0L)));
+    for (int i = 0; i < 40; i++) {
+      assertThat(bounded.get("online" + i), is(notNullValue()));
+    }
+  }
+
+  @Test
+  public void testChurnStaysWithinBound() {
+    LabelStore bounded = new LabelStore(100, nodeName -> true);
+    Set<LabelAtom> labels = new HashSet<>(Arrays.asList(new LabelAtom("example.com")));
+    for (int i = 0; i < 10000; i++) {
+      bounded.put("ephemeral" + i, labels);
+      assertThat(bounded.size(), is(lessThanOrEqualTo(100)));
+    }
+  }
+
+  @Test
+  public void testEvictReturnsLabels() {
+    store.put("agent", Arrays.asList(new LabelAtom("example.com")));
+    assertThat(store.evict("agent"), contains(new LabelAtom("example.com")));
+    assertThat(store.evict("agent"), is(nullValue()));
+    assertThat(store.estimateMemory(), is(0L));
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.model.Computer;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class LabelWarmupTest {
+
+  @Rule public JenkinsRule r = new JenkinsRule();
+
+  private Computer computer;
+  private String name;
+
+  @Before
+  public void setUp() {
+    computer = r.jenkins.toComputer();
+    name = r.jenkins.getNodeName();
+    NodeLabelMgr.nodeLabels.remove(name);
+  }
+
+  @After
+  public void tearDown() {
+    LabelWarmup.startPeriod(0);
+  }
+
+  @Test
+  public void testResolvesOnlineComputers() {
+    LabelWarmup.run();
+    assertThat(NodeLabelMgr.nodeLabels.get(name), is(notNullValue()));
+  }
+
+  @Test
+  public void testResolvesComputersComingOnlineInBatches() throws Exception {
+    LabelWarmup.startPeriod(60);
+    assertThat(LabelWarmup.offer(computer), is(true));
+    assertThat(LabelWarmup.offer(computer), is(true));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (NodeLabelMgr.nodeLabels.get(name) == null && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(NodeLabelMgr.nodeLabels.get(name), is(notNullValue()));
+  }
+
+  @Test
+  public void testComputersComingOnlineAfterThePeriodAreLeftToTheCaller() {
+    LabelWarmup.startPeriod(0);
+    assertThat(LabelWarmup.offer(computer), is(false));
+  }
+}
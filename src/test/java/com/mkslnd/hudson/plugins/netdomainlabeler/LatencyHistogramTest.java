@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsArePowersOfTwo() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(0);
+    histogram.record(1);
+    histogram.record(3);
+    histogram.record(1000);
+    histogram.record(1024);
+    histogram.record(Long.MAX_VALUE);
+    JSONArray buckets = histogram.toJson().getJSONArray("buckets");
+    assertThat(buckets.size(), is(32));
+    // bucket i counts latencies below 2^i microseconds
+    assertThat(buckets.getLong(0), is(1L));
+    assertThat(buckets.getLong(1), is(1L));
+    assertThat(buckets.getLong(2), is(1L));
+    assertThat(buckets.getLong(10), is(1L));
+    assertThat(buckets.getLong(11), is(1L));
+    // the last bucket counts everything above
+    assertThat(buckets.getLong(31), is(1L));
+    assertThat(histogram.getCount(), is(6L));
+  }
+
+  @Test
+  public void testNegativeLatenciesCountAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertThat(histogram.toJson().getJSONArray("buckets").getLong(0), is(1L));
+  }
+
+  @Test
+  public void testPercentilesAreBucketUpperBounds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.percentile(50), is(0L));
+    for (int i = 0; i < 90; i++) {
+      histogram.record(1);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(1000);
+    }
+    assertThat(histogram.percentile(50), is(2L));
+    assertThat(histogram.percentile(90), is(2L));
+    assertThat(histogram.percentile(99), is(1024L));
+  }
+
+  @Test
+  public void testToJson() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.toJson().getLong("meanMicros"), is(0L));
+    histogram.record(100);
+    histogram.record(300);
+    JSONObject json = histogram.toJson();
+    assertThat(json.getLong("count"), is(2L));
+    assertThat(json.getLong("meanMicros"), is(200L));
+    assertThat(json.getLong("p50Micros"), is(128L));
+    assertThat(json.getLong("p99Micros"), is(512L));
+  }
+}
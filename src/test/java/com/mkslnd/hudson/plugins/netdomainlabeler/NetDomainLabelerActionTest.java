@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import com.gargoylesoftware.htmlunit.Page;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+public class NetDomainLabelerActionTest {
+
+  @Rule public JenkinsRule r = new JenkinsRule();
+
+  @Before
+  public void setUp() {
+    r.jenkins.setSecurityRealm(r.createDummySecurityRealm());
+    r.jenkins.setAuthorizationStrategy(
+        new MockAuthorizationStrategy()
+            .grant(Jenkins.ADMINISTER)
+            .everywhere()
+            .to("admin")
+            .grant(Jenkins.READ)
+            .everywhere()
+            .to("user"));
+  }
+
+  @Test
+  public void testToJson() {
+    LabelerMetrics.LABEL_HITS.increment();
+    JSONObject json = LabelerMetrics.toJson();
+    assertThat(
+        json.getJSONObject("latencies").keySet(),
+        containsInAnyOrder("hostname", "forwardDns", "reverseDns"));
+    assertThat(json.getJSONObject("labels").getLong("hits"), is(LabelerMetrics.LABEL_HITS.sum()));
+    assertThat(json.getJSONObject("labels").getInt("nodes"), is(NodeLabelMgr.nodeLabels.size()));
+    assertThat(
+        json.getJSONObject("domains").getString("circuitBreaker"),
+        is(NodeLabelMgr.BREAKER.getState().name()));
+    assertThat(
+        json.getJSONObject("resolutions").getString("executor"),
+        is(NodeLabelMgr.PIPELINE.getMode().name()));
+  }
+
+  @Test
+  public void testMetricsAsAdministrator() throws Exception {
+    JenkinsRule.WebClient client = r.createWebClient().login("admin");
+    Page page = client.goTo("netdomain-labeler/metrics", "application/json");
+    JSONObject json = JSONObject.fromObject(page.getWebResponse().getContentAsString());
+    assertThat(json.keySet(), containsInAnyOrder("latencies", "labels", "domains", "resolutions"));
+  }
+
+  @Test
+  public void testMetricsNeedAdminister() throws Exception {
+    JenkinsRule.WebClient client = r.createWebClient().login("user");
+    client.setThrowExceptionOnFailingStatusCode(false);
+    Page page = client.goTo("netdomain-labeler/metrics", null);
+    assertThat(page.getWebResponse().getStatusCode(), is(403));
+  }
+}
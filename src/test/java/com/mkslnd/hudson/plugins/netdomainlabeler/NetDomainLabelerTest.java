@@ -64,6 +64,19 @@ public class NetDomainLabelerTest {
     assertThat(labels, is(expected));
   }
 
+  /**
+   * The labels are served as stored, without any copy. What a call allocates is measured by
+   * {@link LabelStoreBenchmark#findLabels} with the GC profiler.
+   */
+  @Test
+  public void testFindLabelsReturnsStoredSet() throws Exception {
+    NodeLabelMgr.addLabelsForNode(j.jenkins, NodeLabelMgr.labelsOf("example.com"));
+    NetDomainLabeler labeler = new NetDomainLabeler();
+    Collection<LabelAtom> expected = labeler.findLabels(j.jenkins);
+    assertThat(expected, is(sameInstance(NodeLabelMgr.labelsOf("example.com"))));
+    assertThat(labeler.findLabels(j.jenkins), is(sameInstance(expected)));
+  }
+
   @Test
   public void testLookupUncached() throws Exception {
     /* remove the Jenkins node from the cache */
@@ -29,12 +29,14 @@ import static org.hamcrest.Matchers.*;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Computer;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.model.TopLevelItem;
 import hudson.model.labels.LabelAtom;
 import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
+import hudson.slaves.DumbSlave;
 import hudson.slaves.NodeDescriptor;
 import hudson.slaves.NodeProperty;
 import hudson.slaves.NodePropertyDescriptor;
@@ -42,11 +44,23 @@ import hudson.slaves.RetentionStrategy;
 import hudson.util.ClockDifference;
 import hudson.util.DescribableList;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.LogRecord;
 import javax.servlet.ServletException;
 import org.junit.After;
@@ -120,6 +134,391 @@ public class NodeLabelMgrTest {
     Collection<LabelAtom> labels = nodeLabelMrg.getLabelsForNode(nullingNode);
     assertThat(labels, is(empty()));
   }
+
+  @Test(expected = IOException.class)
+  public void testResolveOnAgent_ChannelThrows() throws Exception {
+    NodeLabelMgr.resolveOnAgent(new ThrowingChannel(new IOException()));
+  }
+
+  @Test
+  public void testResolveOnAgent_Deadline() throws Exception {
+    NetDomainLabelerConfiguration.get().setLookupTimeout(100);
+    SilentChannel channel = new SilentChannel();
+    long start = System.nanoTime();
+    try {
+      NodeLabelMgr.resolveOnAgent(channel);
+      throw new AssertionError("the silent agent reported a domain");
+    } catch (IOException ex) {
+      assertThat(System.nanoTime() - start, is(lessThan(TimeUnit.SECONDS.toNanos(5))));
+      assertThat(channel.pending.isCancelled(), is(true));
+    }
+  }
+
+  @Test
+  public void testResolveOnAgent_LocalChannel() throws Exception {
+    String[] reported = NodeLabelMgr.resolveOnAgent(computer.getChannel());
+    assertThat(reported[AgentDomainCallable.FQDN], is(not(emptyOrNullString())));
+  }
+
+  @Test
+  public void testAgentDomainOf() {
+    assertThat(
+        AgentDomainCallable.domainOf(new String[] {"build1.eu.example.com", "corp.example.com"}),
+        is("eu.example.com"));
+    assertThat(
+        AgentDomainCallable.domainOf(new String[] {"10.0.0.1", "corp.example.com"}),
+        is("corp.example.com"));
+    assertThat(
+        AgentDomainCallable.domainOf(new String[] {"fe80::1", "corp.example.com."}),
+        is("corp.example.com"));
+    assertThat(
+        AgentDomainCallable.domainOf(new String[] {"host1.example1.com", null}),
+        is("example1.com"));
+    assertThat(AgentDomainCallable.domainOf(new String[] {"build1", null}), is(nullValue()));
+  }
+
+  @Test
+  public void testAgentDomainIsValidated() {
+    assertThat(AgentDomainCallable.isValid(new String[] {"build1.eu.example.com", null}), is(true));
+    assertThat(
+        AgentDomainCallable.isValid(new String[] {"10.0.0.1", "corp.example.com"}), is(true));
+    assertThat(AgentDomainCallable.isValid(new String[] {"a b.example.com", null}), is(false));
+    assertThat(AgentDomainCallable.isValid(new String[] {"build1", "corp && prod"}), is(false));
+    assertThat(AgentDomainCallable.isValid(new String[] {"prod||build1", null}), is(false));
+    assertThat(AgentDomainCallable.isValid(null), is(false));
+  }
+
+  @Test
+  public void testLookupDomain_Deadline() throws Exception {
+    NetDomainLabelerConfiguration.get().setLookupTimeout(100);
+    NodeLabelMgr.setResolver(new SimulatedResolver(5, 10000, 1, 0));
+    long timeouts = LabelerMetrics.TIMEOUTS.sum();
+    long start = System.nanoTime();
+    try {
+      assertThat(NodeLabelMgr.lookupDomain("build1.eu.example.com"), is(nullValue()));
+      assertThat(System.nanoTime() - start, is(lessThan(TimeUnit.SECONDS.toNanos(5))));
+      assertThat(LabelerMetrics.TIMEOUTS.sum(), is(timeouts + 1));
+    } finally {
+      NodeLabelMgr.BREAKER.recordSuccess();
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+    }
+  }
+
+  @Test
+  public void testLookupDomain_FailuresOpenTheBreaker() throws Exception {
+    NodeLabelMgr.setResolver(
+        new HostResolver() {
+          @Override
+          public InetAddress forward(final String host) {
+            throw new IllegalStateException("resolver bug");
+          }
+
+          @Override
+          public String reverse(final InetAddress address) {
+            throw new IllegalStateException("resolver bug");
+          }
+        });
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    try {
+      for (int timeout : new int[] {0, 1000}) {
+        config.setLookupTimeout(timeout);
+        NodeLabelMgr.BREAKER.recordSuccess();
+        for (int i = 0; i < 5; i++) {
+          assertThat(NodeLabelMgr.lookupDomain("build" + i), is(nullValue()));
+        }
+        assertThat(NodeLabelMgr.BREAKER.getState(), is(CircuitBreaker.State.OPEN));
+      }
+    } finally {
+      NodeLabelMgr.BREAKER.recordSuccess();
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+    }
+  }
+
+  @Test
+  public void testLookupDomain_BoundsDnsThreads() throws Exception {
+    CountDownLatch answer = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    NodeLabelMgr.setResolver(
+        new HostResolver() {
+          @Override
+          public InetAddress forward(final String host) throws UnknownHostException {
+            calls.incrementAndGet();
+            // like a JVM lookup, deaf to interruptions
+            while (true) {
+              try {
+                answer.await();
+                return InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+              } catch (InterruptedException ex) {
+                // keep waiting
+              }
+            }
+          }
+
+          @Override
+          public String reverse(final InetAddress address) {
+            return address.getHostAddress();
+          }
+        });
+    NetDomainLabelerConfiguration.get().setLookupTimeout(10);
+    long timeouts = LabelerMetrics.TIMEOUTS.sum();
+    try {
+      for (int i = 0; i < NodeLabelMgr.DNS_THREADS + 10; i++) {
+        NodeLabelMgr.BREAKER.recordSuccess();
+        assertThat(NodeLabelMgr.lookupDomain("build" + i), is(nullValue()));
+      }
+      assertThat(LabelerMetrics.TIMEOUTS.sum(), is(timeouts + NodeLabelMgr.DNS_THREADS + 10));
+      assertThat(calls.get(), is(lessThanOrEqualTo(NodeLabelMgr.DNS_THREADS)));
+    } finally {
+      answer.countDown();
+      NodeLabelMgr.BREAKER.recordSuccess();
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+    }
+  }
+
+  @Test
+  public void testResolveAll_BoundedWithoutDnsClient() throws Exception {
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger peak = new AtomicInteger();
+    NodeLabelMgr.setResolver(
+        new HostResolver() {
+          @Override
+          public InetAddress forward(final String host) throws UnknownHostException {
+            return InetAddress.getByName(host);
+          }
+
+          @Override
+          public String reverse(final InetAddress address) {
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+              Thread.sleep(20);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            } finally {
+              active.decrementAndGet();
+            }
+            return "bulk.eu.example.com";
+          }
+        });
+    List<Computer> computers = new ArrayList<>();
+    for (int i = 0; i < 3 * NodeLabelMgr.BULK_CONCURRENCY; i++) {
+      computers.add(new SimulatedNode("bulk-" + i, "10.0.1." + (i + 1)).computer);
+    }
+    try {
+      assertThat(nodeLabelMrg.resolveAll(computers).size(), is(computers.size()));
+      assertThat(peak.get(), is(lessThanOrEqualTo(NodeLabelMgr.BULK_CONCURRENCY)));
+    } finally {
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+      for (Computer bulk : computers) {
+        PersistentLabelCache.remove(bulk.getName());
+      }
+    }
+  }
+
+  @Test
+  public void testLookupDomain_PreferredAddress() throws Exception {
+    InetAddress ipv4 = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    InetAddress other = InetAddress.getByAddress(new byte[] {192, (byte) 168, 0, 1});
+    InetAddress ipv6 = InetAddress.getByName("fd00::1");
+    Map<InetAddress, String> names = new HashMap<>();
+    names.put(ipv4, "build1.v4.example.com");
+    names.put(ipv6, "build1.v6.example.com");
+    NodeLabelMgr.setResolver(
+        new HostResolver() {
+          @Override
+          public InetAddress forward(final String host) {
+            return forwardAll(host)[0];
+          }
+
+          @Override
+          public InetAddress[] forwardAll(final String host) {
+            return new InetAddress[] {ipv6, other, ipv4};
+          }
+
+          @Override
+          public String reverse(final InetAddress address) {
+            return names.getOrDefault(address, address.getHostAddress());
+          }
+        });
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    try {
+      // 192.168.0.1 comes first among IPv4 addresses but has no name
+      assertThat(NodeLabelMgr.lookupDomain("build1"), is("v4.example.com"));
+      config.setPreferredAddresses("ipv6");
+      assertThat(NodeLabelMgr.lookupDomain("build1"), is("v6.example.com"));
+      config.setPreferredAddresses("192.168.0.0/16");
+      assertThat(NodeLabelMgr.lookupDomain("build1"), is("v4.example.com"));
+      names.put(other, "build1.lab.example.com");
+      assertThat(NodeLabelMgr.lookupDomain("build1"), is("lab.example.com"));
+    } finally {
+      config.setPreferredAddresses(null);
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+    }
+  }
+
+  @Test
+  public void testLookupDomain_SingleAddress() throws Exception {
+    InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 9});
+    Map<InetAddress, String> names = new HashMap<>();
+    names.put(address, "build9.ptr.example.com");
+    NodeLabelMgr.setResolver(
+        new HostResolver() {
+          @Override
+          public InetAddress forward(final String host) throws UnknownHostException {
+            return InetAddress.getByAddress(host, address.getAddress());
+          }
+
+          @Override
+          public String reverse(final InetAddress bare) {
+            return names.getOrDefault(bare, bare.getHostAddress());
+          }
+        });
+    try {
+      // the PTR record wins over the name the address was resolved from
+      assertThat(NodeLabelMgr.lookupDomain("build9.fwd.example.com"), is("ptr.example.com"));
+      names.clear();
+      assertThat(NodeLabelMgr.lookupDomain("build9.fwd.example.com"), is("fwd.example.com"));
+      // no name at all, not a domain made of the address
+      assertThat(NodeLabelMgr.lookupDomain("10.0.0.9"), is(nullValue()));
+    } finally {
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+    }
+  }
+
+  @Test
+  public void testTemplatesApplyToResolvedName() throws Exception {
+    InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 7});
+    NodeLabelMgr.setResolver(
+        new HostResolver() {
+          @Override
+          public InetAddress forward(final String host) throws UnknownHostException {
+            return InetAddress.getByAddress(host, address.getAddress());
+          }
+
+          @Override
+          public String reverse(final InetAddress bare) {
+            return "ci-eu1-r07-n12.corp.example.com";
+          }
+        });
+    NetDomainLabelerConfiguration.get()
+        .setHostnameTemplates("ci-{region}-r{rack}-n{node}.* region-{region}");
+    SimulatedNode node = new SimulatedNode("templated", "build7");
+    try {
+      Collection<LabelAtom> labels = nodeLabelMrg.getLabelsForNode(node);
+      assertThat(
+          labels,
+          containsInAnyOrder(
+              r.jenkins.getLabelAtom("corp.example.com"), r.jenkins.getLabelAtom("region-eu1")));
+      // the union of the domain and template labels is made once
+      assertThat(nodeLabelMrg.getLabelsForNode(node), is(sameInstance(labels)));
+    } finally {
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+      NodeLabelMgr.INPUTS.remove("templated");
+      PersistentLabelCache.remove("templated");
+    }
+  }
+
+  @Test
+  public void testConfigurationChangeRelabelsOnlyChangedInputs() throws Exception {
+    DumbSlave saved = r.createOnlineSlave();
+    DumbSlave other = r.createOnlineSlave();
+    for (Node node : Arrays.asList(computer.getNode(), saved, other)) {
+      nodeLabelMrg.getLabelsForNode(node);
+    }
+    // no computer had its inputs changed since
+    assertThat(NodeLabelMgr.relabelChanged(), is(0));
+
+    saved.setLabelString("saved");
+    r.jenkins.updateNode(saved);
+    // as if the labels of the saved node were never computed
+    NodeLabelMgr.INPUTS.remove(saved.getNodeName());
+    long unchanged = NodeLabelMgr.INPUTS.getUnchanged();
+    nodeLabelMrg.onConfigurationChange();
+    // the controller and the other agent were compared and left alone
+    assertThat(NodeLabelMgr.INPUTS.getUnchanged(), is(unchanged + 2));
+
+    String settings = NodeLabelMgr.settingsFingerprint();
+    NetDomainLabelerConfiguration config = NetDomainLabelerConfiguration.get();
+    try {
+      config.setHostnameTemplates("*.{site}.corp site-{site}");
+      assertThat(NodeLabelMgr.settingsFingerprint(), is(not(settings)));
+    } finally {
+      config.setHostnameTemplates(null);
+    }
+    assertThat(NodeLabelMgr.settingsFingerprint(), is(settings));
+  }
+
+  @Test
+  public void testPublishReportsOnlyChangedAtoms() {
+    LabelAtom eu = r.jenkins.getLabelAtom("eu.example.com");
+    LabelAtom us = r.jenkins.getLabelAtom("us.example.com");
+    LabelAtom corp = r.jenkins.getLabelAtom("example.com");
+    Set<LabelAtom> affected = new HashSet<>();
+    try {
+      NodeLabelMgr.publish(
+          Collections.singletonMap("moving", Arrays.asList(eu, corp)), new HashSet<>());
+      NodeLabelMgr.publish(Collections.singletonMap("moving", Arrays.asList(us, corp)), affected);
+      assertThat(affected, containsInAnyOrder(eu, us));
+    } finally {
+      NodeLabelMgr.nodeLabels.remove("moving");
+    }
+  }
+
+  @Test
+  public void testDependentLabels() {
+    LabelAtom eu = r.jenkins.getLabelAtom("eu.example.com");
+    Label expression = r.jenkins.getLabel("linux&&eu.example.com");
+    Label unrelated = r.jenkins.getLabel("linux&&us.example.com");
+    Set<Label> stale =
+        NodeLabelMgr.dependentLabels(
+            Arrays.asList(eu, expression, unrelated, r.jenkins.getLabelAtom("linux")),
+            Collections.singleton(eu));
+    assertThat(stale, containsInAnyOrder(eu, expression));
+  }
+
+  @Test
+  public void testTrimmedAtomsAreReset() {
+    String name = computer.getName();
+    Collection<LabelAtom> before = NodeLabelMgr.nodeLabels.get(name);
+    LabelAtom stored = r.jenkins.getLabelAtom("trim.example.com");
+    try {
+      NodeLabelMgr.publish(
+          Collections.singletonMap(name, Collections.singletonList(stored)), new HashSet<>());
+      NodeLabelMgr.refreshLabels(Collections.singleton(stored));
+      NodeLabelMgr.publish(
+          Collections.singletonMap(name, Collections.emptyList()), new HashSet<>());
+      NodeLabelMgr.refreshLabels(Collections.singleton(stored));
+      r.jenkins.trimLabels();
+      LabelAtom live = r.jenkins.getLabelAtom("trim.example.com");
+      assertThat(live, is(not(sameInstance(stored))));
+      assertThat(live.getNodes(), is(empty()));
+
+      // a label set cached before the trim still holds the old instance
+      Set<LabelAtom> affected = new HashSet<>();
+      NodeLabelMgr.publish(
+          Collections.singletonMap(name, Collections.singletonList(stored)), affected);
+      NodeLabelMgr.refreshLabels(affected);
+      assertThat(live.getNodes(), contains(computer.getNode()));
+    } finally {
+      if (before == null) {
+        NodeLabelMgr.nodeLabels.remove(name);
+      } else {
+        NodeLabelMgr.nodeLabels.put(name, before);
+      }
+    }
+  }
+
+  @Test
+  public void testLastKnownDomain() {
+    PersistentLabelCache.record(
+        "build1",
+        "build1.eu.example.com",
+        "eu.example.com",
+        NodeLabelMgr.labelsOf("eu.example.com"));
+    assertThat(
+        NodeLabelMgr.lastKnownDomain("build1", "build1.eu.example.com"), is("eu.example.com"));
+    assertThat(NodeLabelMgr.lastKnownDomain("build1", "10.0.0.1"), is(nullValue()));
+    assertThat(NodeLabelMgr.lastKnownDomain("build2", "build1.eu.example.com"), is(nullValue()));
+  }
   /*
     @Test(expected = IOException.class)
     public void testRequestComputerPlatformDetails_ChannelThrows() throws Exception {
@@ -208,7 +607,11 @@ public class NodeLabelMgrTest {
       return null;
     }
 
-    public <V, T extends Throwable> hudson.remoting.Future<V> callAsync(Callable<V, T> callable) {
+    public <V, T extends Throwable> hudson.remoting.Future<V> callAsync(Callable<V, T> callable)
+        throws IOException {
+      if (exceptionToThrow != null) {
+        throw exceptionToThrow;
+      }
       return null;
     }
 
@@ -233,6 +636,24 @@ public class NodeLabelMgrTest {
     }
   }
 
+  /** Channel to an agent that never answers. */
+  private class SilentChannel extends ThrowingChannel {
+    private final PendingFuture<?> pending = new PendingFuture<>();
+
+    public SilentChannel() {
+      super(null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V, T extends Throwable> hudson.remoting.Future<V> callAsync(Callable<V, T> callable) {
+      return (hudson.remoting.Future<V>) pending;
+    }
+  }
+
+  private static class PendingFuture<V> extends CompletableFuture<V>
+      implements hudson.remoting.Future<V> {}
+
   private class NullingNode extends Node {
     public Callable<ClockDifference, IOException> getClockDifferenceCallable() {
       throw new UnsupportedOperationException("Unsupported");
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.model.labels.LabelAtom;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class PersistentLabelCacheTest {
+  @Rule public final JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void testSavedLabelsAreServedAfterLoad() throws Exception {
+    LabelAtom domain = j.jenkins.getLabelAtom("example.com");
+    LabelAtom region = j.jenkins.getLabelAtom("region-eu1");
+    PersistentLabelCache.record(
+        "cached-agent", "ci-eu1-r07.example.com", "example.com", Arrays.asList(domain, region));
+    PersistentLabelCache.flush();
+    File file = new File(j.jenkins.getRootDir(), PersistentLabelCache.FILE_NAME);
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertThat(lines, hasItem(allOf(startsWith("cached-agent\t"), endsWith("\tregion-eu1"))));
+
+    NodeLabelMgr.nodeLabels.remove("cached-agent");
+    PersistentLabelCache.load();
+    // the template label is served before any resolution, not only the domain
+    assertThat(NodeLabelMgr.nodeLabels.get("cached-agent"), contains(domain, region));
+  }
+
+  @Test
+  public void testLinesWithoutLabelsServeTheDomain() throws Exception {
+    File file = new File(j.jenkins.getRootDir(), PersistentLabelCache.FILE_NAME);
+    String fingerprint = PersistentLabelCache.fingerprint("build1.example.com");
+    Files.write(
+        file.toPath(),
+        Collections.singletonList(
+            "old-agent\t" + fingerprint + "\texample.com\t" + System.currentTimeMillis()),
+        StandardCharsets.UTF_8);
+    PersistentLabelCache.load();
+    try {
+      assertThat(
+          NodeLabelMgr.nodeLabels.get("old-agent"),
+          contains(j.jenkins.getLabelAtom("example.com")));
+    } finally {
+      PersistentLabelCache.remove("old-agent");
+      NodeLabelMgr.nodeLabels.remove("old-agent");
+    }
+  }
+
+  @Test
+  public void testNamesWithSeparatorsAreEscaped() throws Exception {
+    String name = "odd\tagent\nname\\";
+    PersistentLabelCache.record(
+        name, "build1.example.com", "example.com", NodeLabelMgr.labelsOf("example.com"));
+    PersistentLabelCache.flush();
+    File file = new File(j.jenkins.getRootDir(), PersistentLabelCache.FILE_NAME);
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertThat(lines, hasItem(startsWith("odd\\tagent\\nname\\\\\t")));
+
+    NodeLabelMgr.nodeLabels.remove(name);
+    PersistentLabelCache.load();
+    try {
+      assertThat(PersistentLabelCache.get(name).domain, is("example.com"));
+      assertThat(
+          NodeLabelMgr.nodeLabels.get(name), contains(j.jenkins.getLabelAtom("example.com")));
+    } finally {
+      PersistentLabelCache.remove(name);
+      NodeLabelMgr.nodeLabels.remove(name);
+    }
+  }
+
+  @Test
+  public void testFailedResolutionIsNotSaved() {
+    PersistentLabelCache.record(
+        "dead-agent", "dead.example.com", null, Collections.<LabelAtom>emptySet());
+    assertThat(PersistentLabelCache.get("dead-agent"), is(nullValue()));
+  }
+}
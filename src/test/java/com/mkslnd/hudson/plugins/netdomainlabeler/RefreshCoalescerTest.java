@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import hudson.model.labels.LabelAtom;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Test;
+
+public class RefreshCoalescerTest {
+
+  private final LabelAtom eu = new LabelAtom("eu.example.com");
+  private final LabelAtom us = new LabelAtom("us.example.com");
+
+  @After
+  public void tearDown() {
+    NodeLabelMgr.nodeLabels.remove("coalesced-1");
+    NodeLabelMgr.nodeLabels.remove("coalesced-2");
+    NodeLabelMgr.nodeLabels.remove("coalesced-3");
+  }
+
+  @Test
+  public void testOffersWithinAWindowAreMerged() {
+    // the window never ends on its own, the test flushes it
+    RefreshCoalescer coalescer = new RefreshCoalescer(60000);
+    coalescer.offer("coalesced-1", Collections.singleton(eu));
+    coalescer.offer("coalesced-2", Collections.singleton(eu));
+    coalescer.offer("coalesced-1", Collections.singleton(us));
+    coalescer.offer("coalesced-3", Collections.singleton(us));
+    assertThat(NodeLabelMgr.nodeLabels.get("coalesced-1"), is(nullValue()));
+    coalescer.flush();
+
+    // the latest offer of each node wins
+    assertThat(NodeLabelMgr.nodeLabels.get("coalesced-1"), contains(us));
+    assertThat(NodeLabelMgr.nodeLabels.get("coalesced-2"), contains(eu));
+    assertThat(NodeLabelMgr.nodeLabels.get("coalesced-3"), contains(us));
+    assertThat(coalescer.getRequested(), is(4L));
+    // one offer replaced, three nodes applied in one update
+    assertThat(coalescer.getMerged(), is(3L));
+  }
+
+  @Test
+  public void testCancelledRefreshesAreNotMerged() {
+    RefreshCoalescer coalescer = new RefreshCoalescer(60000);
+    coalescer.offer("coalesced-1", Collections.singleton(eu));
+    coalescer.offer("coalesced-2", Collections.singleton(eu));
+    coalescer.cancel("coalesced-1");
+    coalescer.cancel("coalesced-2");
+    coalescer.flush();
+    assertThat(NodeLabelMgr.nodeLabels.get("coalesced-1"), is(nullValue()));
+    assertThat(coalescer.getMerged(), is(0L));
+
+    coalescer.offer("coalesced-1", Collections.singleton(eu));
+    coalescer.flush();
+    assertThat(coalescer.getMerged(), is(0L));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Domain resolution of stub agents through a stub resolver, so that only the plugin's own work is
+ * measured. Agents have unqualified host names and the reverse lookup policy is {@link
+ * ReverseLookupPolicy#ALWAYS}, so domains come from the resolver and the domain cache rather than
+ * from parsing the names.
+ */
+@JmhBenchmark
+public class ResolutionBenchmark {
+  /** Number of distinct hosts. */
+  private static final int HOSTS = 1000;
+
+  /**
+   * Resolves {@code build<n>} to {@code 10.0.<n / 256>.<n % 256>}, and that address to {@code
+   * build<n>.dc<n % 8>.example.com}, without any DNS.
+   */
+  static final HostResolver STUB =
+      new HostResolver() {
+        @Override
+        public InetAddress forward(final String host) throws UnknownHostException {
+          int n;
+          try {
+            n = Integer.parseInt(host.substring("build".length()));
+          } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            throw new UnknownHostException(host);
+          }
+          return InetAddress.getByAddress(new byte[] {10, 0, (byte) (n >>> 8), (byte) n});
+        }
+
+        @Override
+        public String reverse(final InetAddress address) {
+          byte[] raw = address.getAddress();
+          int n = ((raw[2] & 0xff) << 8) | (raw[3] & 0xff);
+          return "build" + n + ".dc" + (n % 8) + ".example.com";
+        }
+      };
+
+  /** Jenkins with stub agents using the stub resolver. */
+  @State(Scope.Benchmark)
+  public static class StubResolver extends JmhBenchmarkState {
+    /** Unqualified host values. */
+    String[] hosts = new String[HOSTS];
+    /** Fully qualified host values. */
+    String[] fqdns = new String[HOSTS];
+    /** Agents, not attached to Jenkins since only their computer is used. */
+    SimulatedNode[] nodes = new SimulatedNode[HOSTS];
+    /** The listener resolving labels. */
+    NodeLabelMgr mgr = new NodeLabelMgr();
+    /** Rack and site templates. */
+    HostnameTemplates templates =
+        HostnameTemplates.parse(
+            "build{node}.dc{site}.* site-{site}\n*.{dc}.example.com dc-{dc}\nci-{region}-* ci");
+
+    @Override
+    public void setup() {
+      for (int i = 0; i < HOSTS; i++) {
+        hosts[i] = "build" + i;
+        fqdns[i] = "build" + i + ".dc" + (i % 8) + ".example.com";
+        nodes[i] = new SimulatedNode("agent-" + i, hosts[i]);
+      }
+      NodeLabelMgr.setResolver(STUB);
+      NetDomainLabelerConfiguration.get().setReverseLookupPolicy(ReverseLookupPolicy.ALWAYS);
+    }
+
+    /** Every iteration starts with an empty domain cache, filled by its first operations. */
+    @Setup(Level.Iteration)
+    public void invalidateDomains() {
+      NodeLabelMgr.invalidateDomains();
+    }
+
+    @Override
+    public void tearDown() {
+      NodeLabelMgr.setResolver(HostResolver.JDK);
+      for (SimulatedNode node : nodes) {
+        NodeLabelMgr.nodeLabels.remove(node.getNodeName());
+        PersistentLabelCache.remove(node.getNodeName());
+      }
+    }
+  }
+
+  @Benchmark
+  public String lookupDomain(final StubResolver state) {
+    return NodeLabelMgr.lookupDomain(state.hosts[ThreadLocalRandom.current().nextInt(HOSTS)]);
+  }
+
+  @Benchmark
+  public String cachedDomain(final StubResolver state) {
+    return state.mgr.getDomainOf(state.hosts[ThreadLocalRandom.current().nextInt(HOSTS)]);
+  }
+
+  @Benchmark
+  public String parseDomain(final StubResolver state) {
+    return HostNames.domainOf(state.fqdns[ThreadLocalRandom.current().nextInt(HOSTS)]);
+  }
+
+  @Benchmark
+  public List<String> applyTemplates(final StubResolver state) {
+    return state.templates.apply(state.fqdns[ThreadLocalRandom.current().nextInt(HOSTS)]);
+  }
+
+  @Benchmark
+  public void getLabelsForNode(final StubResolver state, final Blackhole blackhole)
+      throws Exception {
+    SimulatedNode node = state.nodes[ThreadLocalRandom.current().nextInt(HOSTS)];
+    blackhole.consume(state.mgr.getLabelsForNode(node));
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ResolutionPipelineTest {
+
+  @Test
+  public void testRunsInTheBackground() throws Exception {
+    ResolutionPipeline pipeline = new ResolutionPipeline(2, 10);
+    AtomicReference<Thread> ran = new AtomicReference<>();
+    CountDownLatch done = new CountDownLatch(1);
+    assertThat(
+        pipeline.submit(
+            "agent",
+            () -> {
+              ran.set(Thread.currentThread());
+              done.countDown();
+            }),
+        is(true));
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(ran.get(), not(Thread.currentThread()));
+    assertThat(ran.get().isDaemon(), is(true));
+  }
+
+  @Test
+  public void testQueuesAKeyOnce() throws Exception {
+    ResolutionPipeline pipeline = new ResolutionPipeline(1, 10);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(2);
+    try {
+      pipeline.submit(
+          "busy",
+          () -> {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+            done.countDown();
+          });
+      assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+      for (int i = 0; i < 5; i++) {
+        assertThat(
+            pipeline.submit(
+                "agent",
+                () -> {
+                  runs.incrementAndGet();
+                  done.countDown();
+                }),
+            is(true));
+      }
+      assertThat(pipeline.getBacklog(), is(1));
+      assertThat(pipeline.getInFlight(), is(2));
+    } finally {
+      release.countDown();
+    }
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(runs.get(), is(1));
+  }
+
+  @Test
+  public void testKeyCanBeQueuedAgainOnceStarted() throws Exception {
+    ResolutionPipeline pipeline = new ResolutionPipeline(1, 10);
+    CountDownLatch first = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch second = new CountDownLatch(1);
+    try {
+      pipeline.submit(
+          "agent",
+          () -> {
+            first.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+          });
+      assertThat(first.await(10, TimeUnit.SECONDS), is(true));
+      // the running resolution may have read stale inputs, a new one is queued behind it
+      assertThat(pipeline.submit("agent", second::countDown), is(true));
+      assertThat(pipeline.getBacklog(), is(1));
+    } finally {
+      release.countDown();
+    }
+    assertThat(second.await(10, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void testFailedResolutionFreesItsSlot() throws Exception {
+    ResolutionPipeline pipeline = new ResolutionPipeline(1, 1);
+    CountDownLatch done = new CountDownLatch(1);
+    pipeline.submit(
+        "agent",
+        () -> {
+          throw new IllegalStateException("boom");
+        });
+    pipeline.submit("other", done::countDown);
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    long deadline = System.currentTimeMillis() + 10000;
+    while (pipeline.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(pipeline.getInFlight(), is(0));
+    assertThat(pipeline.getBacklog(), is(0));
+  }
+
+  @Test
+  public void testCallerRuns() {
+    ResolutionPipeline pipeline = new ResolutionPipeline(ExecutorMode.CALLER_RUNS, 1, 1);
+    AtomicReference<Thread> ran = new AtomicReference<>();
+    assertThat(pipeline.submit("agent", () -> ran.set(Thread.currentThread())), is(true));
+    assertThat(ran.get(), is(Thread.currentThread()));
+    assertThat(pipeline.getInFlight(), is(0));
+  }
+
+  @Test
+  public void testBoundedRejectsPastCapacity() throws Exception {
+    ResolutionPipeline pipeline = new ResolutionPipeline(ExecutorMode.BOUNDED, 1, 1);
+    CountDownLatch release = new CountDownLatch(1);
+    Runnable blocked =
+        () -> {
+          try {
+            release.await();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        };
+    try {
+      assertThat(pipeline.submit("a", blocked), is(true));
+      assertThat(pipeline.submit("b", blocked), is(true));
+      assertThat(pipeline.submit("b", blocked), is(true));
+      assertThat(pipeline.submit("c", blocked), is(false));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testVirtualThreads() throws Exception {
+    Assume.assumeTrue(ExecutorMode.hasVirtualThreads());
+    ResolutionPipeline pipeline = new ResolutionPipeline(ExecutorMode.VIRTUAL, 1, 10000);
+    int lookups = 5000;
+    CountDownLatch started = new CountDownLatch(lookups);
+    CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < lookups; i++) {
+      pipeline.submit(
+          "agent" + i,
+          () -> {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+          });
+    }
+    try {
+      // every blocked resolution has its own thread
+      assertThat(started.await(30, TimeUnit.SECONDS), is(true));
+      assertThat(pipeline.getInFlight(), is(lookups));
+    } finally {
+      release.countDown();
+    }
+  }
+}
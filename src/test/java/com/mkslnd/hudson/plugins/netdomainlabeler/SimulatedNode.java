@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.TopLevelItem;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.NodeDescriptor;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.slaves.RetentionStrategy;
+import hudson.util.ClockDifference;
+import hudson.util.DescribableList;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.logging.LogRecord;
+import javax.servlet.ServletException;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/** Agent reduced to what the labeler uses: a name and a computer with a host name. */
+class SimulatedNode extends Node {
+  private final String name;
+  private final String host;
+  final SimulatedComputer computer;
+
+  SimulatedNode(String name, String host) {
+    this.name = name;
+    this.host = host;
+    this.computer = new SimulatedComputer(this);
+  }
+
+  @Override
+  public Computer toComputer() {
+    return computer;
+  }
+
+  public String getNodeName() {
+    return name;
+  }
+
+  public int getNumExecutors() {
+    return 0;
+  }
+
+  public Node.Mode getMode() {
+    return Node.Mode.NORMAL;
+  }
+
+  public String getLabelString() {
+    return "";
+  }
+
+  public String getNodeDescription() {
+    return name;
+  }
+
+  public Callable<ClockDifference, IOException> getClockDifferenceCallable() {
+    throw new UnsupportedOperationException("Unsupported");
+  }
+
+  public NodeDescriptor getDescriptor() {
+    throw new UnsupportedOperationException("Unsupported");
+  }
+
+  public DescribableList<NodeProperty<?>, NodePropertyDescriptor> getNodeProperties() {
+    throw new UnsupportedOperationException("Unsupported");
+  }
+
+  public FilePath getRootPath() {
+    throw new UnsupportedOperationException("Unsupported");
+  }
+
+  public FilePath getWorkspaceFor(TopLevelItem item) {
+    throw new UnsupportedOperationException("Unsupported");
+  }
+
+  public Computer createComputer() {
+    throw new UnsupportedOperationException("Unsupported");
+  }
+
+  public Launcher createLauncher(TaskListener listener) {
+    throw new UnsupportedOperationException("Unsupported");
+  }
+
+  @Deprecated
+  public void setNodeName(String name) {
+    throw new UnsupportedOperationException("Unsupported");
+  }
+
+  /** Computer of a simulated agent, answering its host name without any channel. */
+  static final class SimulatedComputer extends Computer {
+    private final SimulatedNode node;
+    /** Whether the agent went offline. */
+    volatile boolean offline;
+
+    SimulatedComputer(SimulatedNode node) {
+      super(node);
+      this.node = node;
+    }
+
+    @Override
+    public Node getNode() {
+      return node;
+    }
+
+    @Override
+    public String getHostName() {
+      return node.host;
+    }
+
+    @Override
+    public VirtualChannel getChannel() {
+      return null;
+    }
+
+    @Override
+    public boolean isOffline() {
+      return offline;
+    }
+
+    @Override
+    public Charset getDefaultCharset() {
+      throw new UnsupportedOperationException("Unsupported");
+    }
+
+    @Override
+    public List<LogRecord> getLogRecords() throws IOException, InterruptedException {
+      throw new UnsupportedOperationException("Unsupported");
+    }
+
+    @Override
+    public void doLaunchSlaveAgent(StaplerRequest sr, StaplerResponse sr1)
+        throws IOException, ServletException {
+      throw new UnsupportedOperationException("Unsupported");
+    }
+
+    @Override
+    protected Future<?> _connect(boolean bln) {
+      throw new UnsupportedOperationException("Unsupported");
+    }
+
+    @Override
+    public Boolean isUnix() {
+      return Boolean.TRUE;
+    }
+
+    @Override
+    public boolean isConnecting() {
+      return false;
+    }
+
+    @Override
+    public RetentionStrategy getRetentionStrategy() {
+      throw new UnsupportedOperationException("Unsupported");
+    }
+  }
+}
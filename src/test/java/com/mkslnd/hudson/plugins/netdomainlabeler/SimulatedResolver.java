@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for DNS. Every host resolves to {@code 10.0.0.1} under its own name after a
+ * random latency, except for a share of timeouts and NXDOMAIN answers.
+ */
+class SimulatedResolver implements HostResolver {
+  /** Mean latency of a lookup in milliseconds. */
+  private final long latencyMillis;
+  /** Latency of a lookup that times out, in milliseconds. */
+  private final long timeoutMillis;
+  /** Share of lookups that time out, between 0 and 1. */
+  private final double timeoutRate;
+  /** Share of lookups answered NXDOMAIN, between 0 and 1. */
+  private final double nxdomainRate;
+  /** Lookups answered. */
+  final AtomicLong lookups = new AtomicLong();
+
+  SimulatedResolver(
+      long latencyMillis, long timeoutMillis, double timeoutRate, double nxdomainRate) {
+    this.latencyMillis = latencyMillis;
+    this.timeoutMillis = timeoutMillis;
+    this.timeoutRate = timeoutRate;
+    this.nxdomainRate = nxdomainRate;
+  }
+
+  @Override
+  public InetAddress forward(String host) throws UnknownHostException {
+    lookups.incrementAndGet();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    double outcome = random.nextDouble();
+    try {
+      if (outcome < timeoutRate) {
+        TimeUnit.MILLISECONDS.sleep(timeoutMillis);
+        throw new UnknownHostException(host + ": timeout");
+      }
+      TimeUnit.MILLISECONDS.sleep(latencyMillis / 2 + random.nextLong(latencyMillis + 1));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new UnknownHostException(host + ": interrupted");
+    }
+    if (outcome < timeoutRate + nxdomainRate) {
+      throw new UnknownHostException(host + ": NXDOMAIN");
+    }
+    return InetAddress.getByAddress(host, new byte[] {10, 0, 0, 1});
+  }
+
+  @Override
+  public String reverse(InetAddress address) {
+    // no PTR records, the name of the host is the one it was resolved from
+    return address.getHostAddress();
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testConcurrentCallersShareComputation() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> first =
+        executor.submit(
+            () ->
+                flight.run(
+                    "node",
+                    () -> {
+                      started.countDown();
+                      release.await();
+                      return "example.com";
+                    }));
+    assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+    Future<String> second = executor.submit(() -> flight.run("node", () -> "unexpected"));
+    while (flight.getShared() == 0) {
+      Thread.sleep(10);
+    }
+    release.countDown();
+    assertThat(first.get(10, TimeUnit.SECONDS), is("example.com"));
+    assertThat(second.get(10, TimeUnit.SECONDS), is("example.com"));
+    assertThat(flight.getExecuted(), is(1L));
+    assertThat(flight.getShared(), is(1L));
+  }
+
+  @Test
+  public void testSequentialCallersComputeAgain() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    assertThat(flight.run("node", () -> "a"), is("a"));
+    assertThat(flight.run("node", () -> "b"), is("b"));
+    assertThat(flight.getExecuted(), is(2L));
+    assertThat(flight.getShared(), is(0L));
+  }
+
+  @Test(expected = IOException.class)
+  public void testFailureIsPropagated() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    flight.run(
+        "node",
+        () -> {
+          throw new IOException("boom");
+        });
+  }
+
+  @Test
+  public void testInterruptedOwnerCancelsWaiters() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    CountDownLatch started = new CountDownLatch(1);
+    // the owner gets the interruption once, its status cleared like any blocking call
+    AtomicBoolean ownerInterrupted = new AtomicBoolean();
+    Thread owner =
+        new Thread(
+            () -> {
+              try {
+                flight.run(
+                    "node",
+                    () -> {
+                      started.countDown();
+                      new CountDownLatch(1).await();
+                      return "unexpected";
+                    });
+              } catch (InterruptedException ex) {
+                ownerInterrupted.set(!Thread.currentThread().isInterrupted());
+              } catch (IOException ex) {
+                // not expected, leaves ownerInterrupted false
+              }
+            });
+    owner.start();
+    assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+    Future<String> waiter =
+        executor.submit(
+            () -> {
+              try {
+                return flight.run("node", () -> "unexpected");
+              } catch (InterruptedIOException ex) {
+                return "cancelled";
+              }
+            });
+    while (flight.getShared() == 0) {
+      Thread.sleep(10);
+    }
+    owner.interrupt();
+    owner.join(10000);
+    assertThat(ownerInterrupted.get(), is(true));
+    assertThat(waiter.get(10, TimeUnit.SECONDS), is("cancelled"));
+  }
+}
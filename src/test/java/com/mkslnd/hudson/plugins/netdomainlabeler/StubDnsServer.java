@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 campom10.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mkslnd.hudson.plugins.netdomainlabeler;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process DNS server for {@link DnsClient} tests, answering A, AAAA and PTR queries over UDP and
+ * TCP from a fixed zone after a delay.
+ */
+class StubDnsServer implements Closeable {
+  /** A records. */
+  final Map<String, byte[]> addresses = new ConcurrentHashMap<>();
+  /** AAAA records. */
+  final Map<String, byte[]> ipv6Addresses = new ConcurrentHashMap<>();
+  /** PTR records. */
+  final Map<String, String> pointers = new ConcurrentHashMap<>();
+  /** Names answered with the truncation flag over UDP. */
+  final Set<String> truncated = ConcurrentHashMap.newKeySet();
+  /** Names whose first UDP query is dropped. */
+  final Set<String> dropOnce = ConcurrentHashMap.newKeySet();
+  /** TTL of the records. */
+  volatile int ttl = 300;
+  /** Queries received over UDP. */
+  final AtomicInteger udpQueries = new AtomicInteger();
+  /** Queries received over TCP. */
+  final AtomicInteger tcpQueries = new AtomicInteger();
+  /** Ports the UDP queries came from. */
+  final Set<Integer> sourcePorts = ConcurrentHashMap.newKeySet();
+
+  private final long delayMillis;
+  private final DatagramSocket udp;
+  private final ServerSocket tcp;
+  private final ScheduledExecutorService replies = Executors.newScheduledThreadPool(2);
+  private volatile boolean closed;
+
+  StubDnsServer(final long delayMillis) throws IOException {
+    this.delayMillis = delayMillis;
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    DatagramSocket datagrams = null;
+    ServerSocket stream = null;
+    // the TCP port has to match the UDP one
+    while (stream == null) {
+      datagrams = new DatagramSocket(new InetSocketAddress(loopback, 0));
+      try {
+        stream = new ServerSocket(datagrams.getLocalPort(), 50, loopback);
+      } catch (IOException ex) {
+        datagrams.close();
+      }
+    }
+    udp = datagrams;
+    udp.setReceiveBufferSize(1 << 20);
+    tcp = stream;
+    start("udp", this::serveUdp);
+    start("tcp", this::serveTcp);
+  }
+
+  /**
+   * The address clients send their queries to.
+   *
+   * @return the address
+   */
+  InetSocketAddress getAddress() {
+    return (InetSocketAddress) udp.getLocalSocketAddress();
+  }
+
+  private static void start(final String name, final Runnable loop) {
+    Thread thread = new Thread(loop, "stub DNS " + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void serveUdp() {
+    byte[] buffer = new byte[512];
+    while (!closed) {
+      try {
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        udp.receive(packet);
+        udpQueries.incrementAndGet();
+        sourcePorts.add(packet.getPort());
+        byte[] query = Arrays.copyOf(packet.getData(), packet.getLength());
+        String name = DnsClient.parse(ByteBuffer.wrap(query)).questionName;
+        if (dropOnce.remove(name)) {
+          continue;
+        }
+        byte[] answer = answer(query, truncated.contains(name));
+        DatagramPacket reply = new DatagramPacket(answer, answer.length, packet.getSocketAddress());
+        replies.schedule(
+            () -> {
+              udp.send(reply);
+              return null;
+            },
+            delayMillis,
+            TimeUnit.MILLISECONDS);
+      } catch (IOException ex) {
+        // closed
+      }
+    }
+  }
+
+  private void serveTcp() {
+    while (!closed) {
+      try (Socket socket = tcp.accept()) {
+        tcpQueries.incrementAndGet();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] query = new byte[in.readUnsignedShort()];
+        in.readFully(query);
+        byte[] answer = answer(query, false);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeShort(answer.length);
+        out.write(answer);
+        out.flush();
+      } catch (IOException ex) {
+        // closed
+      }
+    }
+  }
+
+  private byte[] answer(final byte[] query, final boolean truncate) {
+    DnsClient.Response question = DnsClient.parse(ByteBuffer.wrap(query));
+    byte[] rdata = null;
+    if (!truncate) {
+      if (question.questionType == DnsClient.A) {
+        rdata = addresses.get(question.questionName);
+      } else if (question.questionType == DnsClient.AAAA) {
+        rdata = ipv6Addresses.get(question.questionName);
+      } else if (question.questionType == DnsClient.PTR) {
+        String target = pointers.get(question.questionName);
+        rdata = target == null ? null : encodeName(target);
+      }
+    }
+    boolean exists =
+        addresses.containsKey(question.questionName)
+            || ipv6Addresses.containsKey(question.questionName)
+            || pointers.containsKey(question.questionName);
+    ByteBuffer message = ByteBuffer.allocate(512);
+    message.putShort((short) question.id);
+    message.putShort(
+        (short) (0x8180 | (truncate ? 0x0200 : 0) | (exists ? 0 : DnsClient.NXDOMAIN)));
+    message.putShort((short) 1);
+    message.putShort((short) (rdata == null ? 0 : 1));
+    message.putShort((short) 0);
+    message.putShort((short) 0);
+    // the question as asked
+    message.put(query, 12, query.length - 12);
+    if (rdata != null) {
+      message.putShort((short) 0xc00c);
+      message.putShort((short) question.questionType);
+      message.putShort((short) 1);
+      message.putInt(ttl);
+      message.putShort((short) rdata.length);
+      message.put(rdata);
+    }
+    return Arrays.copyOf(message.array(), message.position());
+  }
+
+  private static byte[] encodeName(final String name) {
+    ByteBuffer buffer = ByteBuffer.allocate(name.length() + 2);
+    for (String label : name.split("\\.")) {
+      buffer.put((byte) label.length());
+      buffer.put(label.getBytes(StandardCharsets.US_ASCII));
+    }
+    buffer.put((byte) 0);
+    return buffer.array();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    replies.shutdownNow();
+    udp.close();
+    tcp.close();
+  }
+}